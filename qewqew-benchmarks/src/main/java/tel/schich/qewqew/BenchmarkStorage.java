@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the directories the benchmarks place their queue files in. The "tmpfs" location isolates the queue logic
+ * from the storage device, the "disk" location includes it. Both can be overridden using the system properties
+ * {@code qewqew.bench.tmpfs} and {@code qewqew.bench.disk}.
+ */
+final class BenchmarkStorage {
+    static final String TMPFS = "tmpfs";
+    static final String DISK = "disk";
+
+    private BenchmarkStorage() {
+    }
+
+    static Path createDirectory(String storage) throws IOException {
+        final String base;
+        switch (storage) {
+            case TMPFS:
+                base = System.getProperty("qewqew.bench.tmpfs", "/dev/shm");
+                break;
+            case DISK:
+                base = System.getProperty("qewqew.bench.disk", "target/bench-data");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage: " + storage);
+        }
+        Path dir = Paths.get(base);
+        Files.createDirectories(dir);
+        return Files.createTempDirectory(dir, "qewqew-bench-");
+    }
+
+    static void deleteDirectory(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
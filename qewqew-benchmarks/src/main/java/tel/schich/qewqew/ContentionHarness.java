@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for {@link SimplePollableQewQew} with varying numbers of producers and consumers and fair or unfair
+ * locking.
+ * <p>
+ * Producers run open loop: each one sends at a fixed rate and stamps every element with the time it was supposed to be
+ * sent. Latency is measured from that intended time, so a stalled producer doesn't hide the delay of the elements it
+ * should have sent in the meantime (coordinated omission). Consumers block in {@link PollableQewQew#dequeue(long,
+ * TimeUnit)}, if an element arrived while a consumer was already waiting, the time from the start of its enqueue until
+ * the consumer returned is recorded as wakeup delay.
+ * <p>
+ * Options are given as {@code --name value} pairs, list options accept comma separated values and every combination
+ * is run:
+ * <ul>
+ *     <li>{@code --producers} (list, default 1,2,4)</li>
+ *     <li>{@code --consumers} (list, default 1,2,4)</li>
+ *     <li>{@code --fair} (list, default true,false)</li>
+ *     <li>{@code --rate} total elements per second (default 50000)</li>
+ *     <li>{@code --duration} measured seconds per configuration (default 10)</li>
+ *     <li>{@code --warmup} seconds per configuration that are not recorded (default 2)</li>
+ *     <li>{@code --element-size} bytes, at least 16 (default 64)</li>
+ *     <li>{@code --chunk-size} bytes (default 16777216)</li>
+ *     <li>{@code --storage} tmpfs or disk (default tmpfs)</li>
+ *     <li>{@code --durability} os_managed or sync (default os_managed)</li>
+ *     <li>{@code --csv} file to additionally write the results to</li>
+ * </ul>
+ */
+public final class ContentionHarness {
+    private static final long MAX_LATENCY = TimeUnit.SECONDS.toNanos(60);
+    private static final long POLL_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String HEADER = "producers,consumers,fair,target_rate,throughput,"
+            + "latency_p50_us,latency_p99_us,latency_p999_us,latency_max_us,"
+            + "wakeups,wakeup_p50_us,wakeup_p99_us,wakeup_p999_us";
+
+    private ContentionHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int[] producerCounts = intList(options.getOrDefault("producers", "1,2,4"));
+        int[] consumerCounts = intList(options.getOrDefault("consumers", "1,2,4"));
+        String[] fairness = options.getOrDefault("fair", "true,false").split(",");
+        long rate = Long.parseLong(options.getOrDefault("rate", "50000"));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "2")));
+        int elementSize = Integer.parseInt(options.getOrDefault("element-size", "64"));
+        long chunkSize = Long.parseLong(options.getOrDefault("chunk-size", "16777216"));
+        String storage = options.getOrDefault("storage", BenchmarkStorage.TMPFS);
+        DurabilityMode durability = SimpleQewQewBenchmark.durability(options.getOrDefault("durability", "os_managed"));
+        String csv = options.get("csv");
+
+        if (elementSize < 2 * Long.BYTES) {
+            throw new IllegalArgumentException("Elements need at least " + 2 * Long.BYTES + " bytes for the timestamps!");
+        }
+
+        List<String> rows = new ArrayList<>();
+        System.out.println(HEADER);
+        for (int producers : producerCounts) {
+            for (int consumers : consumerCounts) {
+                for (String fair : fairness) {
+                    Path dir = BenchmarkStorage.createDirectory(storage);
+                    try {
+                        QewOptions qewOptions = QewOptions.DEFAULT.withDurability(durability);
+                        SimpleQewQew qew = new SimpleQewQew(dir.resolve("queue"), chunkSize, qewOptions);
+                        try (PollableQewQew<byte[]> queue = new SimplePollableQewQew<>(qew, Boolean.parseBoolean(fair))) {
+                            Run run = new Run(queue, producers, consumers, rate, elementSize, warmup, duration);
+                            String row = producers + "," + consumers + "," + fair + "," + rate + "," + run.execute();
+                            System.out.println(row);
+                            rows.add(row);
+                        }
+                    } finally {
+                        BenchmarkStorage.deleteDirectory(dir);
+                    }
+                }
+            }
+        }
+
+        if (csv != null) {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(csv)), false, "UTF-8")) {
+                out.println(HEADER);
+                rows.forEach(out::println);
+            }
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value pairs, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int[] intList(String value) {
+        String[] parts = value.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static final class Run {
+        private final PollableQewQew<byte[]> queue;
+        private final int producers;
+        private final int consumers;
+        private final long rate;
+        private final int elementSize;
+        private final long warmup;
+        private final long duration;
+
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong received = new AtomicLong();
+        private final AtomicLong measured = new AtomicLong();
+        private final Histogram latency = new Histogram(MAX_LATENCY, 3);
+        private final Histogram wakeup = new Histogram(MAX_LATENCY, 3);
+        private volatile boolean producing = true;
+        private volatile Throwable failure;
+        private long measureFrom;
+        private long measureUntil;
+
+        Run(PollableQewQew<byte[]> queue, int producers, int consumers, long rate, int elementSize, long warmup, long duration) {
+            this.queue = queue;
+            this.producers = producers;
+            this.consumers = consumers;
+            this.rate = rate;
+            this.elementSize = elementSize;
+            this.warmup = warmup;
+            this.duration = duration;
+        }
+
+        String execute() throws Exception {
+            final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            measureFrom = start + warmup;
+            measureUntil = measureFrom + duration;
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < consumers; i++) {
+                threads.add(new Thread(this::consume, "consumer-" + i));
+            }
+            final long interval = TimeUnit.SECONDS.toNanos(producers) / rate;
+            List<Thread> producerThreads = new ArrayList<>();
+            for (int i = 0; i < producers; i++) {
+                // spread the producers evenly over the interval
+                final long first = start + i * interval / producers;
+                producerThreads.add(new Thread(() -> produce(first, interval), "producer-" + i));
+            }
+            threads.addAll(producerThreads);
+            threads.forEach(Thread::start);
+            for (Thread producer : producerThreads) {
+                producer.join();
+            }
+            producing = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            if (failure != null) {
+                throw new Exception("Load generation failed!", failure);
+            }
+
+            double throughput = measured.get() / (duration / 1e9);
+            return String.format("%.0f,%s,%s,%s,%s,%d,%s,%s,%s", throughput,
+                    micros(latency.getValueAtPercentile(50)), micros(latency.getValueAtPercentile(99)),
+                    micros(latency.getValueAtPercentile(99.9)), micros(latency.getMaxValue()),
+                    wakeup.getTotalCount(), micros(wakeup.getValueAtPercentile(50)),
+                    micros(wakeup.getValueAtPercentile(99)), micros(wakeup.getValueAtPercentile(99.9)));
+        }
+
+        private static String micros(long nanos) {
+            return String.format("%.1f", nanos / 1000.0);
+        }
+
+        private void produce(long first, long interval) {
+            final byte[] elem = new byte[elementSize];
+            final ByteBuffer buf = ByteBuffer.wrap(elem);
+            try {
+                for (long intended = first; intended < measureUntil; intended += interval) {
+                    long now;
+                    while ((now = System.nanoTime()) < intended) {
+                        LockSupport.parkNanos(intended - now);
+                    }
+                    buf.putLong(0, intended);
+                    buf.putLong(Long.BYTES, now);
+                    queue.enqueue(elem);
+                    sent.incrementAndGet();
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        private void consume() {
+            final Histogram localLatency = new Histogram(MAX_LATENCY, 3);
+            final Histogram localWakeup = new Histogram(MAX_LATENCY, 3);
+            long localMeasured = 0;
+            try {
+                while (producing || received.get() < sent.get()) {
+                    final long called = System.nanoTime();
+                    final byte[] elem = queue.dequeue(POLL_TIMEOUT, TimeUnit.NANOSECONDS);
+                    final long now = System.nanoTime();
+                    if (elem == null) {
+                        continue;
+                    }
+                    received.incrementAndGet();
+                    final ByteBuffer buf = ByteBuffer.wrap(elem);
+                    final long intended = buf.getLong(0);
+                    final long enqueued = buf.getLong(Long.BYTES);
+                    if (now >= measureFrom && now < measureUntil) {
+                        localMeasured++;
+                    }
+                    if (intended < measureFrom || intended >= measureUntil) {
+                        continue;
+                    }
+                    localLatency.recordValue(Math.min(now - intended, MAX_LATENCY));
+                    if (enqueued > called) {
+                        localWakeup.recordValue(Math.min(now - enqueued, MAX_LATENCY));
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+            synchronized (this) {
+                latency.add(localLatency);
+                wakeup.add(localWakeup);
+            }
+            measured.addAndGet(localMeasured);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sizes the chunks to hold exactly {@link #elementsPerChunk} elements, so that the chunk creation and removal
+ * dominate. Spare chunks and background allocation by a chunk allocator can be enabled to compare them against plain
+ * file creation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RolloverBenchmark {
+
+    @Param({"16", "4096"})
+    public int elementSize;
+
+    @Param({"1", "16"})
+    public int elementsPerChunk;
+
+    @Param({"0", "4"})
+    public int spareChunks;
+
+    @Param({"false", "true"})
+    public boolean chunkAllocator;
+
+    @Param({BenchmarkStorage.TMPFS, BenchmarkStorage.DISK})
+    public String storage;
+
+    private Path dir;
+    private ExecutorService allocator;
+    private SimpleQewQew qew;
+    private byte[] element;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = BenchmarkStorage.createDirectory(storage);
+        long chunkSize = QewFormat.CURRENT.chunkHeaderSize + (long) elementsPerChunk * (QewFormat.CURRENT.entryHeaderSize + elementSize);
+        QewOptions options = QewOptions.DEFAULT
+                .withDurability(DurabilityMode.OS_MANAGED)
+                .withSpareChunks(spareChunks);
+        if (chunkAllocator) {
+            allocator = Executors.newSingleThreadExecutor();
+            options = options.withChunkAllocator(allocator);
+        }
+        qew = new SimpleQewQew(dir.resolve("queue"), chunkSize, options);
+        element = new byte[elementSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        qew.close();
+        if (allocator != null) {
+            allocator.shutdown();
+        }
+        BenchmarkStorage.deleteDirectory(dir);
+    }
+
+    /**
+     * Fills two chunks and drains them again, which creates and removes at least one chunk per round.
+     */
+    @Benchmark
+    public int fillAndDrain() throws IOException {
+        final int count = 2 * elementsPerChunk;
+        for (int i = 0; i < count; i++) {
+            qew.enqueue(element);
+        }
+        return qew.discard(count);
+    }
+}
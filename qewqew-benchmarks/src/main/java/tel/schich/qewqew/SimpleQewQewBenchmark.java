@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the single threaded enqueue, peek and dequeue paths of {@link SimpleQewQew}. Enqueue and dequeue can't
+ * run forever on their own, so every {@link #BATCH} operations the queue is drained or refilled, which is amortized
+ * over the batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimpleQewQewBenchmark {
+    static final int BATCH = 64;
+
+    @Param({"16", "256", "4096", "65536"})
+    public int elementSize;
+
+    @Param({"1048576", "16777216"})
+    public long chunkSize;
+
+    @Param({BenchmarkStorage.TMPFS, BenchmarkStorage.DISK})
+    public String storage;
+
+    @Param({"os_managed"})
+    public String durability;
+
+    @Param({"false", "true"})
+    public boolean checksums;
+
+    private Path dir;
+    private SimpleQewQew qew;
+    private byte[] element;
+    private byte[] output;
+    private int pending;
+    private int available;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = BenchmarkStorage.createDirectory(storage);
+        qew = new SimpleQewQew(dir.resolve("queue"), chunkSize, QewOptions.DEFAULT.withDurability(durability(durability))
+                .withChecksums(checksums));
+        element = new byte[elementSize];
+        new Random(1).nextBytes(element);
+        output = new byte[elementSize];
+        for (int i = 0; i < BATCH; i++) {
+            qew.enqueue(element);
+        }
+        available = BATCH;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        qew.close();
+        BenchmarkStorage.deleteDirectory(dir);
+    }
+
+    static DurabilityMode durability(String name) {
+        switch (name) {
+            case "sync":
+                return DurabilityMode.SYNC;
+            case "os_managed":
+                return DurabilityMode.OS_MANAGED;
+            default:
+                throw new IllegalArgumentException("Unknown durability: " + name);
+        }
+    }
+
+    @Benchmark
+    public void enqueue() throws IOException {
+        qew.enqueue(element);
+        if (++pending == BATCH) {
+            qew.discard(BATCH);
+            pending = 0;
+        }
+    }
+
+    @Benchmark
+    public byte[] peek() {
+        qew.peek(output);
+        return output;
+    }
+
+    @Benchmark
+    public byte[] dequeue() throws IOException {
+        if (available == 0) {
+            for (int i = 0; i < BATCH; i++) {
+                qew.enqueue(element);
+            }
+            available = BATCH;
+        }
+        qew.peek(output);
+        qew.dequeue();
+        available--;
+        return output;
+    }
+
+    @Benchmark
+    public byte[] roundTrip() throws IOException {
+        qew.enqueue(element);
+        qew.peek(output);
+        qew.dequeue();
+        return output;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A decompressed batch record. A batch record is a single entry holding several elements, it consists of the id of
+ * the {@link QewCompression}, the number of elements and the uncompressed size followed by the compressed elements.
+ * Each uncompressed element is prefixed with its 32 bit length.
+ */
+final class Batch {
+    static final int HEADER_SIZE = 1 + Integer.BYTES + Integer.BYTES;
+    // the maximum uncompressed size of a batch
+    static final int MAX_SIZE = 64 * 1024;
+    private static final int COUNT_OFFSET = 1;
+    private static final int SIZE_OFFSET = COUNT_OFFSET + Integer.BYTES;
+
+    final int count;
+    private final byte[] data;
+    private final int[] offsets;
+
+    private Batch(byte[] data, int[] offsets) {
+        this.count = offsets.length;
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Decompresses the given record, the elements are checked to exactly fill the uncompressed size.
+     *
+     * @param record the record, from its position to its limit
+     * @param compression the compression of the queue
+     * @throws IOException if the record is corrupted
+     * @throws QewFormatException if the record has been compressed with an unknown compression
+     */
+    static Batch decode(ByteBuffer record, QewCompression compression) throws IOException {
+        final int base = record.position();
+        if (record.remaining() < HEADER_SIZE) {
+            throw new IOException("Batch record is too short!");
+        }
+        final int id = record.get(base) & 0xFF;
+        final int count = record.getInt(base + COUNT_OFFSET);
+        final int size = record.getInt(base + SIZE_OFFSET);
+        if (count <= 0 || size < 0 || size > MAX_SIZE || (long) count * Integer.BYTES > size) {
+            throw new IOException("Batch record has an invalid header!");
+        }
+        final QewCompression decompressor;
+        if (compression != null && id == compression.getId()) {
+            decompressor = compression;
+        } else if (id == DeflateCompression.ID) {
+            decompressor = QewCompression.DEFLATE;
+        } else {
+            throw new QewFormatException("Batch record has an unknown compression: " + id);
+        }
+
+        final byte[] data = new byte[size];
+        final ByteBuffer compressed = record.duplicate();
+        compressed.position(base + HEADER_SIZE);
+        decompressor.decompress(compressed, data);
+
+        final int[] offsets = new int[count];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            if (offset + Integer.BYTES > size) {
+                throw new IOException("Batch record is truncated!");
+            }
+            offsets[i] = offset;
+            long end = (long) offset + Integer.BYTES + getInt(data, offset);
+            if (getInt(data, offset) < 0 || end > size) {
+                throw new IOException("Batch record is truncated!");
+            }
+            offset = (int) end;
+        }
+        if (offset != size) {
+            throw new IOException("Batch record has trailing bytes!");
+        }
+        return new Batch(data, offsets);
+    }
+
+    static int countOf(ByteBuffer buf, int recordOffset) {
+        return buf.getInt(recordOffset + COUNT_OFFSET);
+    }
+
+    /**
+     * Returns the number of element bytes in the given record, without the length prefixes.
+     */
+    static long dataBytesOf(ByteBuffer buf, int recordOffset) {
+        return buf.getInt(recordOffset + SIZE_OFFSET) - (long) countOf(buf, recordOffset) * Integer.BYTES;
+    }
+
+    int lengthOf(int index) {
+        return getInt(data, offsets[index]);
+    }
+
+    byte[] read(int index, byte[] output) {
+        System.arraycopy(data, offsets[index] + Integer.BYTES, output, 0, lengthOf(index));
+        return output;
+    }
+
+    ByteBuffer view(int index) {
+        return ByteBuffer.wrap(data, offsets[index] + Integer.BYTES, lengthOf(index)).slice().asReadOnlyBuffer();
+    }
+
+    private static int getInt(byte[] buf, int offset) {
+        return (buf[offset] & 0xFF) << 24 | (buf[offset + 1] & 0xFF) << 16 | (buf[offset + 2] & 0xFF) << 8 | (buf[offset + 3] & 0xFF);
+    }
+
+    private static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) (value >>> 24);
+        buf[offset + 1] = (byte) (value >>> 16);
+        buf[offset + 2] = (byte) (value >>> 8);
+        buf[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects elements up to a maximum uncompressed size and compresses them into a batch record.
+     */
+    static final class Writer {
+        private final int maxSize;
+        private byte[] buffer;
+        private int size;
+        private int count;
+
+        Writer(int maxSize) {
+            this.maxSize = maxSize;
+            this.buffer = new byte[256];
+        }
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean fits(int length) {
+            return (long) size + Integer.BYTES + length <= maxSize;
+        }
+
+        void add(byte[] elem, int offset, int length) {
+            int start = grow(length);
+            System.arraycopy(elem, offset, buffer, start, length);
+        }
+
+        void add(ByteBuffer elem) {
+            int length = elem.remaining();
+            int start = grow(length);
+            elem.duplicate().get(buffer, start, length);
+        }
+
+        private int grow(int length) {
+            int required = size + Integer.BYTES + length;
+            if (required > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(required, Math.min(buffer.length * 2, maxSize)));
+            }
+            putInt(buffer, size, length);
+            size = required;
+            count++;
+            return required - length;
+        }
+
+        /**
+         * Compresses the collected elements into a record.
+         */
+        byte[] compress(QewCompression compression) {
+            byte[] compressed = compression.compress(buffer, 0, size);
+            byte[] record = new byte[HEADER_SIZE + compressed.length];
+            record[0] = (byte) compression.getId();
+            putInt(record, COUNT_OFFSET, count);
+            putInt(record, SIZE_OFFSET, size);
+            System.arraycopy(compressed, 0, record, HEADER_SIZE, compressed.length);
+            return record;
+        }
+
+        /**
+         * The uncompressed size of all collected elements including their length prefixes.
+         */
+        int size() {
+            return size;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns the length of the element at the given offset into the buffer, elements start after their length.
+         */
+        int lengthAt(int offset) {
+            return getInt(buffer, offset);
+        }
+
+        void clear() {
+            size = 0;
+            count = 0;
+        }
+    }
+}
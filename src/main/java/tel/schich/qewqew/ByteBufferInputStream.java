@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Reads the remaining bytes of a sequence of buffers, without modifying the buffers.
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer[] buffers;
+    private int current;
+
+    ByteBufferInputStream(List<ByteBuffer> buffers) {
+        this.buffers = new ByteBuffer[buffers.size()];
+        for (int i = 0; i < this.buffers.length; i++) {
+            this.buffers[i] = buffers.get(i).duplicate();
+        }
+        this.current = 0;
+    }
+
+    private ByteBuffer buffer() {
+        while (current < buffers.length && !buffers[current].hasRemaining()) {
+            current++;
+        }
+        return current < buffers.length ? buffers[current] : null;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buf = buffer();
+        if (buf == null) {
+            return -1;
+        }
+        return buf.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer buf = buffer();
+        if (buf == null) {
+            return -1;
+        }
+        int n = Math.min(len, buf.remaining());
+        buf.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer buf;
+        while (skipped < n && (buf = buffer()) != null) {
+            int step = (int) Math.min(n - skipped, buf.remaining());
+            buf.position(buf.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = current; i < buffers.length; i++) {
+            available += buffers[i].remaining();
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+}
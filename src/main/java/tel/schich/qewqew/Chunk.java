@@ -23,51 +23,95 @@
 package tel.schich.qewqew;
 
 import static tel.schich.qewqew.SimpleQewQew.CHUNK_HEADER_OFFSET;
-import static tel.schich.qewqew.SimpleQewQew.CHUNK_HEADER_SIZE;
 import static tel.schich.qewqew.SimpleQewQew.CHUNK_HEAD_PTR_OFFSET;
 import static tel.schich.qewqew.SimpleQewQew.CHUNK_NEXT_REF_OFFSET;
 import static tel.schich.qewqew.SimpleQewQew.CHUNK_TAIL_PTR_OFFSET;
-import static tel.schich.qewqew.SimpleQewQew.ENTRY_HEADER_SIZE;
 import static tel.schich.qewqew.SimpleQewQew.NULL_REF;
-import static tel.schich.qewqew.SimpleQewQew.getUShort;
 import static tel.schich.qewqew.SimpleQewQew.openFile;
-import static tel.schich.qewqew.SimpleQewQew.putUShort;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 final class Chunk implements Closeable {
+    private static final int PAGE_SIZE = 4096;
+    private static final AtomicIntegerFieldUpdater<Chunk> RESERVED = AtomicIntegerFieldUpdater.newUpdater(Chunk.class, "reserved");
 
     private final long chunkSize;
     private final Path path;
-    final int id;
+    private final DurabilityMode durability;
+    private final QewFormat format;
+    final long id;
 
     private FileChannel file;
     private FileLock lock;
     private MappedByteBuffer map;
+    private ByteBuffer reader;
 
-    int headPtr;
-    int tailPtr;
-    int next;
+    // written by either the producer or the consumer, but read by both
+    volatile int headPtr;
+    volatile int tailPtr;
+    volatile long next;
+    // number of elements dequeued from the batch record at the head
+    volatile int headIndex;
+    volatile boolean dirty;
+    // loaded from its header, but not opened since the queue has been opened
+    boolean lazy;
+    // accessed by the consumer, so a producer of a shared queue does not close it anymore
+    boolean visited;
+    // reservation cursor of concurrent producers, ahead of the tail pointer while payloads are being copied
+    private volatile int reserved;
+    private int sealedAt = -1;
 
-    Chunk(Path path, int id, long chunkSize) {
+    Chunk(Path path, long id, long chunkSize, DurabilityMode durability, QewFormat format) {
         this.path = path;
         this.id = id;
         this.chunkSize = chunkSize;
+        this.durability = durability;
+        this.format = format;
     }
 
     void open() throws IOException {
         if (this.file != null) {
             return;
         }
-        this.file = openFile(path);
+        this.file = openFile(path, durability);
         this.lock = file.lock();
         this.map = file.map(FileChannel.MapMode.READ_WRITE, 0, this.chunkSize);
+        // the consumer reads through its own view, as the producer moves the position of the map
+        this.reader = this.map.duplicate();
+        this.lazy = false;
+    }
+
+    boolean isOpen() {
+        return this.file != null;
+    }
+
+    /**
+     * Reads the header of an existing chunk without locking or mapping the file, the chunk has to be
+     * {@link #open() opened} before its entries can be accessed.
+     */
+    Chunk load() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(format.chunkHeaderSize);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && file.read(header, header.position()) >= 0) {
+                // read the complete header
+            }
+        }
+        if (header.hasRemaining()) {
+            throw new QewFormatException("Chunk header is too short: " + path);
+        }
+        this.readChunkHeader(header);
+        this.resetReservations();
+        this.lazy = true;
+        return this;
     }
 
     Chunk init(boolean forceNew) throws IOException {
@@ -76,46 +120,90 @@ final class Chunk implements Closeable {
 
         if (forceNew) {
             this.file.truncate(chunkSize);
-            this.headPtr = CHUNK_HEADER_SIZE;
-            this.tailPtr = CHUNK_HEADER_SIZE;
+            this.headPtr = format.chunkHeaderSize;
+            this.tailPtr = format.chunkHeaderSize;
             this.next = NULL_REF;
+            this.headIndex = 0;
+            this.writeChunkHeader();
         } else {
             this.map.position(CHUNK_HEADER_OFFSET);
-            this.headPtr = map.getInt(CHUNK_HEAD_PTR_OFFSET);
-            this.tailPtr = map.getInt(CHUNK_TAIL_PTR_OFFSET);
-            this.next = getUShort(map, CHUNK_NEXT_REF_OFFSET);
+            this.readChunkHeader(this.map);
         }
+        this.resetReservations();
 
         return this;
     }
 
+    private void readChunkHeader(ByteBuffer header) {
+        this.headPtr = header.getInt(CHUNK_HEAD_PTR_OFFSET);
+        this.tailPtr = header.getInt(CHUNK_TAIL_PTR_OFFSET);
+        this.next = format.getRef(header, CHUNK_NEXT_REF_OFFSET);
+        this.headIndex = format.compression ? header.getInt(format.headIndexOffset) : 0;
+    }
+
+    /**
+     * Writes to every page of the mapping, so the writer does not run into page faults.
+     */
+    void prefault() {
+        for (int i = format.chunkHeaderSize; i < this.map.capacity(); i += PAGE_SIZE) {
+            this.map.put(i, (byte) 0);
+        }
+    }
+
     void drop() throws IOException {
-        close();
+        // no point in forcing a file that is about to be deleted
+        discard();
         Files.delete(path);
     }
 
+    void moveTo(Path target) throws IOException {
+        discard();
+        Files.move(path, target);
+    }
+
+    /**
+     * Closes the chunk without forcing it, as the content is irrelevant once the chunk has been depleted.
+     */
+    void discard() throws IOException {
+        this.dirty = false;
+        close();
+    }
+
     @Override
     public void close() throws IOException {
         if (this.file != null) {
-            this.force();
+            this.sync();
             this.lock.release();
             this.file.close();
         }
         this.file = null;
         this.lock = null;
         this.map = null;
+        this.reader = null;
     }
 
-    void force() {
-        this.map.force();
+    void sync() {
+        MappedByteBuffer map = this.map;
+        if (this.dirty && map != null) {
+            // cleared before forcing, so concurrent modifications are forced by the next sync
+            this.dirty = false;
+            map.force();
+        }
     }
 
     byte[] peek(byte[] output) {
-        this.map.position(this.headPtr + SimpleQewQew.ENTRY_HEADER_SIZE);
-        this.map.get(output);
+        this.reader.position(this.headPtr + format.entryHeaderSize);
+        this.reader.get(output);
         return output;
     }
 
+    ByteBuffer view(int length) {
+        ByteBuffer view = this.map.duplicate();
+        view.limit(this.headPtr + format.entryHeaderSize + length);
+        view.position(this.headPtr + format.entryHeaderSize);
+        return view.slice().asReadOnlyBuffer();
+    }
+
     void writeChunkHeader() {
         writeChunkHeadPtr();
         writeChunkTailPtr();
@@ -124,24 +212,240 @@ final class Chunk implements Closeable {
 
     void writeChunkHeadPtr() {
         this.map.putInt(CHUNK_HEAD_PTR_OFFSET, this.headPtr);
+        if (format.compression) {
+            this.map.putInt(format.headIndexOffset, this.headIndex);
+        }
+        this.dirty = true;
     }
 
     void writeChunkTailPtr() {
         this.map.putInt(CHUNK_TAIL_PTR_OFFSET, this.tailPtr);
+        this.dirty = true;
     }
 
     void writeChunkNextRef() {
-        SimpleQewQew.putUShort(this.map, CHUNK_NEXT_REF_OFFSET, this.next);
+        format.putRef(this.map, CHUNK_NEXT_REF_OFFSET, this.next);
+        this.dirty = true;
+    }
+
+    /**
+     * Links the chunk to the next chunk. The ref is written before it is published, as the consumer of a shared queue
+     * might drop and close the chunk as soon as it sees the next ref.
+     */
+    void link(long next) {
+        format.putRef(this.map, CHUNK_NEXT_REF_OFFSET, next);
+        this.dirty = true;
+        this.next = next;
     }
 
     void putPayload(byte[] payload, int offset, int length) {
-        putUShort(this.map, this.tailPtr, length);
-        this.map.position(this.tailPtr + ENTRY_HEADER_SIZE);
+        putPayload(payload, offset, length, 0);
+    }
+
+    void putPayload(byte[] payload, int offset, int length, int flags) {
+        this.dirty = true;
+        format.putLength(this.map, this.tailPtr, length | flags);
+        this.map.position(this.tailPtr + format.entryHeaderSize);
         this.map.put(payload, offset, length);
+        format.putChecksum(this.map, this.tailPtr);
+    }
+
+    void putPayload(ByteBuffer payload) {
+        this.dirty = true;
+        format.putLength(this.map, this.tailPtr, payload.remaining());
+        this.map.position(this.tailPtr + format.entryHeaderSize);
+        this.map.put(payload.duplicate());
+        format.putChecksum(this.map, this.tailPtr);
+    }
+
+    void putPayload(ByteBuffer[] parts, int length) {
+        this.dirty = true;
+        format.putLength(this.map, this.tailPtr, length);
+        this.map.position(this.tailPtr + format.entryHeaderSize);
+        for (ByteBuffer part : parts) {
+            this.map.put(part.duplicate());
+        }
+        format.putChecksum(this.map, this.tailPtr);
+    }
+
+    ByteBuffer claim(int length) {
+        ByteBuffer claimed = this.map.duplicate();
+        claimed.limit(this.tailPtr + format.entryHeaderSize + length);
+        claimed.position(this.tailPtr + format.entryHeaderSize);
+        return claimed.slice();
+    }
+
+    void putLength(int length) {
+        this.dirty = true;
+        format.putLength(this.map, this.tailPtr, length);
+        format.putChecksum(this.map, this.tailPtr);
+    }
+
+    void resetReservations() {
+        this.reserved = this.tailPtr;
+        this.sealedAt = -1;
+    }
+
+    /**
+     * Reserves space for an entry of the given size.
+     *
+     * @return the offset of the reserved space or -1 if the chunk is full
+     */
+    int reserve(int size) {
+        while (true) {
+            int start = this.reserved;
+            if ((long) start + size > this.chunkSize) {
+                return -1;
+            }
+            if (RESERVED.compareAndSet(this, start, start + size)) {
+                return start;
+            }
+        }
+    }
+
+    int reservedPtr() {
+        return this.reserved;
+    }
+
+    /**
+     * Prevents further reservations, must only be called by a single thread.
+     *
+     * @return the end of the last reservation
+     */
+    int seal() {
+        if (this.sealedAt == -1) {
+            this.sealedAt = RESERVED.getAndSet(this, (int) this.chunkSize);
+        }
+        return this.sealedAt;
+    }
+
+    void putPayloadAt(int start, byte[] payload, int offset, int length) {
+        // positions are not shared between concurrent producers
+        ByteBuffer target = this.map.duplicate();
+        this.dirty = true;
+        format.putLength(target, start, length);
+        target.position(start + format.entryHeaderSize);
+        target.put(payload, offset, length);
+        format.putChecksum(target, start);
+    }
+
+    /**
+     * Advances the tail pointer over the reserved space from start to end once all preceding reservations have been
+     * published.
+     */
+    void publish(int start, int end) {
+        awaitTail(start);
+        this.map.putInt(CHUNK_TAIL_PTR_OFFSET, end);
+        // a sync of another producer might have cleared the flag since the payload has been written
+        this.dirty = true;
+        this.tailPtr = end;
+    }
+
+    void awaitTail(int end) {
+        while (this.tailPtr != end) {
+            Thread.yield();
+        }
     }
 
     int peekLength() {
-        return getUShort(this.map, this.headPtr);
+        return format.getLength(this.map, this.headPtr);
+    }
+
+    int headFlags() {
+        return format.getFlags(this.map, this.headPtr);
+    }
+
+    int lengthAt(int ptr) {
+        return format.getLength(this.map, ptr);
+    }
+
+    int flagsAt(int ptr) {
+        return format.getFlags(this.map, ptr);
+    }
+
+    /**
+     * Copies the data of the entry at the given pointer into the output and returns its length.
+     */
+    int readAt(int ptr, byte[] output, int offset) {
+        int length = lengthAt(ptr);
+        this.reader.position(ptr + format.entryHeaderSize);
+        this.reader.get(output, offset, length);
+        return length;
+    }
+
+    ByteBuffer viewAt(int ptr) {
+        ByteBuffer view = this.map.duplicate();
+        view.limit(ptr + format.entryHeaderSize + lengthAt(ptr));
+        view.position(ptr + format.entryHeaderSize);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    void putEntryHeader(int ptr, int length, int flags) {
+        this.dirty = true;
+        format.putLength(this.map, ptr, length | flags);
+    }
+
+    void putBytes(int ptr, ByteBuffer bytes) {
+        this.dirty = true;
+        this.map.position(ptr);
+        this.map.put(bytes);
+    }
+
+    void putChecksum(int ptr) {
+        format.putChecksum(this.map, ptr);
+    }
+
+    /**
+     * Checks that the entry at the given pointer lies within the written part of the chunk and matches its checksum.
+     */
+    boolean verifyAt(int ptr) {
+        return format.verify(this.map, ptr, this.tailPtr);
+    }
+
+    /**
+     * Moves the head pointer in memory past a corrupted entry at the head. The tail pointer is the next trustworthy
+     * position if the length of the entry is corrupted as well.
+     */
+    void skipCorruptedHead() {
+        int ptr = this.headPtr;
+        long end = ptr + format.entryHeaderSize;
+        if (end <= this.tailPtr) {
+            end += lengthAt(ptr);
+        }
+        this.headPtr = end <= this.tailPtr ? (int) end : this.tailPtr;
+        this.headIndex = 0;
+    }
+
+    /**
+     * Counts the elements between the head and the tail pointer, continuation fragments are not counted.
+     */
+    int countElements() {
+        int count = -this.headIndex;
+        for (int ptr = this.headPtr; ptr < this.tailPtr; ptr += format.entryHeaderSize + lengthAt(ptr)) {
+            int flags = flagsAt(ptr);
+            if ((flags & QewFormat.ENTRY_FLAG_BATCH) != 0) {
+                count += Batch.countOf(this.map, ptr + format.entryHeaderSize);
+            } else if ((flags & QewFormat.ENTRY_FLAG_CONTINUATION) == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the uncompressed data bytes between the head and the tail pointer, the elements that have already been
+     * dequeued from the batch at the head are counted as well.
+     */
+    long countDataBytes() {
+        long bytes = 0;
+        for (int ptr = this.headPtr; ptr < this.tailPtr; ptr += format.entryHeaderSize + lengthAt(ptr)) {
+            if ((flagsAt(ptr) & QewFormat.ENTRY_FLAG_BATCH) != 0) {
+                bytes += Batch.dataBytesOf(this.map, ptr + format.entryHeaderSize);
+            } else {
+                bytes += lengthAt(ptr);
+            }
+        }
+        return bytes;
     }
 
 
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Prepares the next tail chunk in the background, so rolling over to it does not require the writer to create, map
+ * and fault in a new chunk file. At most one chunk is prepared at a time.
+ */
+final class ChunkAllocator {
+    private final Executor executor;
+
+    private long preparedId;
+    private FutureTask<Chunk> prepared;
+
+    ChunkAllocator(Executor executor) {
+        this.executor = executor;
+        this.preparedId = SimpleQewQew.NULL_REF;
+        this.prepared = null;
+    }
+
+    boolean isPreparing(long id) {
+        return prepared != null && preparedId == id;
+    }
+
+    /**
+     * Starts preparing the chunk with the given id using the given opener, a previously prepared chunk has to be
+     * {@link #cancel() cancelled} first.
+     *
+     * @param id the id of the chunk
+     * @param opener opens, maps and faults in the chunk
+     */
+    void prepare(long id, Callable<Chunk> opener) {
+        if (prepared != null) {
+            throw new IllegalStateException("Another chunk is being prepared!");
+        }
+        FutureTask<Chunk> task = new FutureTask<>(opener);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the writer falls back to creating the chunk itself
+            return;
+        }
+        preparedId = id;
+        prepared = task;
+    }
+
+    /**
+     * Takes the prepared chunk, waiting for its preparation if necessary.
+     *
+     * @param id the id of the required chunk
+     * @return the prepared chunk or null if the chunk has not been prepared or the preparation failed
+     */
+    Chunk take(long id) throws IOException {
+        if (!isPreparing(id)) {
+            return null;
+        }
+        return cancel();
+    }
+
+    /**
+     * Waits for the chunk that is being prepared, if any.
+     *
+     * @return the prepared chunk, which needs to be disposed by the caller, or null
+     */
+    Chunk cancel() throws IOException {
+        FutureTask<Chunk> task = prepared;
+        prepared = null;
+        preparedId = SimpleQewQew.NULL_REF;
+        if (task == null) {
+            return null;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next chunk!");
+        } catch (ExecutionException e) {
+            // the writer falls back to creating the chunk itself
+            return null;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A bounded pool of spare chunk files, which are depleted chunk files renamed to
+ * {@code <queue header file>.spare.<index>}. Chunks are recycled by the consumer while spares are taken by the
+ * producer, so the pool is guarded by a lock.
+ */
+final class ChunkPool {
+    private static final String SPARE_INFIX = ".spare.";
+
+    private final Path headPath;
+    private final int capacity;
+    private final Deque<Path> spares;
+    private final Lock lock;
+    private int nextIndex;
+
+    ChunkPool(Path headPath, int capacity) throws IOException {
+        this.headPath = headPath;
+        this.capacity = capacity;
+        this.spares = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.nextIndex = 0;
+
+        final String prefix = headPath.getFileName().toString() + SPARE_INFIX;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(headPath.getParent(), prefix + "*")) {
+            for (Path spare : stream) {
+                try {
+                    int index = Integer.parseInt(spare.getFileName().toString().substring(prefix.length()));
+                    nextIndex = Math.max(nextIndex, index + 1);
+                    spares.addLast(spare);
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return spares.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves the file of the given depleted chunk into the pool, if the pool has not reached its capacity yet.
+     *
+     * @param chunk the depleted chunk
+     * @return true if the chunk file has been recycled, false if it has to be deleted
+     */
+    boolean recycle(Chunk chunk) throws IOException {
+        lock.lock();
+        try {
+            if (spares.size() >= capacity) {
+                return false;
+            }
+            Path spare = headPath.resolveSibling(headPath.getFileName() + SPARE_INFIX + nextIndex++);
+            chunk.moveTo(spare);
+            spares.addLast(spare);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a chunk file that has been {@link #take(Path) taken} but could not be used back into the pool, or deletes
+     * it if the pool has reached its capacity in the meantime.
+     *
+     * @param chunkPath the path the spare has been moved to
+     */
+    void restore(Path chunkPath) throws IOException {
+        lock.lock();
+        try {
+            if (spares.size() >= capacity) {
+                Files.deleteIfExists(chunkPath);
+                return;
+            }
+            Path spare = headPath.resolveSibling(headPath.getFileName() + SPARE_INFIX + nextIndex++);
+            Files.move(chunkPath, spare);
+            spares.addLast(spare);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a spare chunk file to the given path, if the pool is not empty.
+     *
+     * @param target the path of the new chunk file
+     * @return true if a spare has been moved, false if the chunk file has to be created
+     */
+    boolean take(Path target) throws IOException {
+        lock.lock();
+        try {
+            Path spare = spares.pollLast();
+            if (spare == null) {
+                return false;
+            }
+            Files.move(spare, target, REPLACE_EXISTING);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() throws IOException {
+        lock.lock();
+        try {
+            Path spare;
+            while ((spare = spares.pollFirst()) != null) {
+                Files.deleteIfExists(spare);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
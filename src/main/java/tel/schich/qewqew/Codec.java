@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes elements of a {@link SerializingQewQew} straight into the mapped chunk and decodes them from a view of it.
+ * See {@link Codecs} for the built-in codecs.
+ *
+ * @param <E> the element type
+ */
+public interface Codec<E> {
+
+    /**
+     * Returns an upper bound of the encoded size of the given element, which is the space that is claimed for it.
+     *
+     * @param elem the element to encode
+     * @return the maximum number of bytes {@link #encode(Object, ByteBuffer)} writes
+     */
+    int maxSize(E elem);
+
+    /**
+     * Encodes the element starting at the position of the target and advances the position past the encoded bytes.
+     *
+     * @param elem the element to encode
+     * @param target the buffer to encode into, which has at least {@link #maxSize(Object)} bytes remaining
+     */
+    void encode(E elem, ByteBuffer target);
+
+    /**
+     * Decodes an element from the remaining bytes of the source. The source is only valid during this call, so the
+     * element must not share it.
+     *
+     * @param source the encoded element
+     * @return the decoded element
+     */
+    E decode(ByteBuffer source);
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Built-in {@link Codec}s. Numbers are big endian and the parts of composites are prefixed with their 32 bit length,
+ * so variable length parts can be combined.
+ */
+public final class Codecs {
+
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        @Override
+        public int maxSize(byte[] elem) {
+            return elem.length;
+        }
+
+        @Override
+        public void encode(byte[] elem, ByteBuffer target) {
+            target.put(elem);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer source) {
+            byte[] elem = new byte[source.remaining()];
+            source.get(elem);
+            return elem;
+        }
+    };
+
+    /**
+     * Encodes strings as UTF-8 without an intermediate array, unpaired surrogates are replaced by {@code ?}.
+     */
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public int maxSize(String elem) {
+            return (int) Math.min(elem.length() * 3L, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void encode(String elem, ByteBuffer target) {
+            encodeUtf8(elem, target);
+        }
+
+        @Override
+        public String decode(ByteBuffer source) {
+            final int length = source.remaining();
+            if (source.hasArray()) {
+                String elem = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+                source.position(source.limit());
+                return elem;
+            }
+            byte[] bytes = new byte[length];
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final Codec<Integer> INTEGER = new FixedSizeCodec<Integer>(Integer.BYTES) {
+        @Override
+        public void encode(Integer elem, ByteBuffer target) {
+            target.putInt(elem);
+        }
+
+        @Override
+        public Integer decode(ByteBuffer source) {
+            return source.getInt();
+        }
+    };
+
+    public static final Codec<Long> LONG = new FixedSizeCodec<Long>(Long.BYTES) {
+        @Override
+        public void encode(Long elem, ByteBuffer target) {
+            target.putLong(elem);
+        }
+
+        @Override
+        public Long decode(ByteBuffer source) {
+            return source.getLong();
+        }
+    };
+
+    public static final Codec<Float> FLOAT = new FixedSizeCodec<Float>(Float.BYTES) {
+        @Override
+        public void encode(Float elem, ByteBuffer target) {
+            target.putFloat(elem);
+        }
+
+        @Override
+        public Float decode(ByteBuffer source) {
+            return source.getFloat();
+        }
+    };
+
+    public static final Codec<Double> DOUBLE = new FixedSizeCodec<Double>(Double.BYTES) {
+        @Override
+        public void encode(Double elem, ByteBuffer target) {
+            target.putDouble(elem);
+        }
+
+        @Override
+        public Double decode(ByteBuffer source) {
+            return source.getDouble();
+        }
+    };
+
+    private Codecs() {
+    }
+
+    /**
+     * Encodes lists as the number of elements followed by the length prefixed elements.
+     *
+     * @param codec the codec of the list elements
+     * @param <T> the type of the list elements
+     * @return the codec of lists
+     */
+    public static <T> Codec<List<T>> listOf(Codec<T> codec) {
+        return new Codec<List<T>>() {
+            @Override
+            public int maxSize(List<T> elem) {
+                long size = Integer.BYTES;
+                for (T item : elem) {
+                    size += Integer.BYTES + codec.maxSize(item);
+                }
+                return (int) Math.min(size, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void encode(List<T> elem, ByteBuffer target) {
+                target.putInt(elem.size());
+                for (T item : elem) {
+                    encodePart(codec, item, target);
+                }
+            }
+
+            @Override
+            public List<T> decode(ByteBuffer source) {
+                final int size = source.getInt();
+                final List<T> elem = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    elem.add(decodePart(codec, source));
+                }
+                return elem;
+            }
+        };
+    }
+
+    /**
+     * Encodes an element made up of two parts as the length prefixed parts.
+     *
+     * @param first the codec of the first part
+     * @param getFirst returns the first part of an element
+     * @param second the codec of the second part
+     * @param getSecond returns the second part of an element
+     * @param constructor creates an element from its parts
+     * @param <E> the element type
+     * @param <A> the type of the first part
+     * @param <B> the type of the second part
+     * @return the codec of the composite
+     */
+    public static <E, A, B> Codec<E> composite(Codec<A> first, Function<? super E, ? extends A> getFirst,
+                                                Codec<B> second, Function<? super E, ? extends B> getSecond,
+                                                BiFunction<? super A, ? super B, ? extends E> constructor) {
+        return new Codec<E>() {
+            @Override
+            public int maxSize(E elem) {
+                long size = 2L * Integer.BYTES + first.maxSize(getFirst.apply(elem)) + second.maxSize(getSecond.apply(elem));
+                return (int) Math.min(size, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void encode(E elem, ByteBuffer target) {
+                encodePart(first, getFirst.apply(elem), target);
+                encodePart(second, getSecond.apply(elem), target);
+            }
+
+            @Override
+            public E decode(ByteBuffer source) {
+                A a = decodePart(first, source);
+                B b = decodePart(second, source);
+                return constructor.apply(a, b);
+            }
+        };
+    }
+
+    private static <T> void encodePart(Codec<T> codec, T part, ByteBuffer target) {
+        final int lengthPosition = target.position();
+        target.position(lengthPosition + Integer.BYTES);
+        codec.encode(part, target);
+        target.putInt(lengthPosition, target.position() - lengthPosition - Integer.BYTES);
+    }
+
+    private static <T> T decodePart(Codec<T> codec, ByteBuffer source) {
+        final int length = source.getInt();
+        final int end = source.position() + length;
+        final ByteBuffer part = source.duplicate();
+        part.limit(end);
+        T elem = codec.decode(part);
+        source.position(end);
+        return elem;
+    }
+
+    static void encodeUtf8(String s, ByteBuffer target) {
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | (c >> 6)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                target.put((byte) '?');
+            } else {
+                target.put((byte) (0xE0 | (c >> 12)));
+                target.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private abstract static class FixedSizeCodec<E> implements Codec<E> {
+        private final int size;
+
+        FixedSizeCodec(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int maxSize(E elem) {
+            return size;
+        }
+    }
+}
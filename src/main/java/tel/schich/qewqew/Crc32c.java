@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * Computes CRC32C checksums of buffer regions. On Java 9 and later the intrinsified {@code java.util.zip.CRC32C} is
+ * used, which is looked up at runtime as the library targets Java 8. Otherwise a table driven implementation is used.
+ */
+final class Crc32c {
+    private static final int POLYNOMIAL = 0x82F63B78;
+    private static final int[] TABLE = new int[256];
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle UPDATE;
+
+    static {
+        for (int i = 0; i < TABLE.length; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try {
+            final Class<?> type = Class.forName("java.util.zip.CRC32C");
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(type, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException ignored) {
+            // Java 8
+        }
+        CONSTRUCTOR = constructor;
+        UPDATE = update;
+    }
+
+    private Crc32c() {
+    }
+
+    static boolean isIntrinsic() {
+        return UPDATE != null;
+    }
+
+    /**
+     * Computes the checksum of the given region of the buffer without modifying its position or limit.
+     */
+    static int compute(ByteBuffer buf, int offset, int length) {
+        if (UPDATE != null) {
+            // a CRC32C is only a single int, so it is cheaper to create than to share
+            final ByteBuffer region = buf.duplicate();
+            region.limit(offset + length);
+            region.position(offset);
+            try {
+                final Checksum checksum = (Checksum) CONSTRUCTOR.invokeExact();
+                UPDATE.invokeExact(checksum, region);
+                return (int) checksum.getValue();
+            } catch (Throwable t) {
+                throw new IllegalStateException("CRC32C could not be computed!", t);
+            }
+        }
+        return computeTable(buf, offset, length);
+    }
+
+    static int computeTable(ByteBuffer buf, int offset, int length) {
+        int crc = -1;
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ buf.get(i)) & 0xFF];
+        }
+        return ~crc;
+    }
+}
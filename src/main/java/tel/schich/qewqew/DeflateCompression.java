@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The built-in {@link QewCompression} using zlib, deflaters and inflaters are pooled as they hold native memory.
+ */
+final class DeflateCompression implements QewCompression {
+    static final int ID = 1;
+
+    private static final Pool<Decompressor> DECOMPRESSORS = new Pool<>(Decompressor::new, d -> d.inflater.end());
+
+    private final int level;
+    private final Pool<Deflater> deflaters;
+
+    DeflateCompression(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be between 0 and 9!");
+        }
+        this.level = level;
+        this.deflaters = new Pool<>(() -> new Deflater(level), Deflater::end);
+    }
+
+    @Override
+    public int getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] compress(byte[] input, int offset, int length) {
+        final Deflater deflater = deflaters.take();
+        try {
+            deflater.reset();
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            byte[] output = new byte[length / 2 + 64];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                size += deflater.deflate(output, size, output.length - size);
+            }
+            return Arrays.copyOf(output, size);
+        } finally {
+            deflaters.release(deflater);
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuffer input, byte[] output) throws IOException {
+        final Decompressor decompressor = DECOMPRESSORS.take();
+        try {
+            decompressor.decompress(input, output);
+        } finally {
+            DECOMPRESSORS.release(decompressor);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateCompression(level=" + level + ")";
+    }
+
+    private static final class Decompressor {
+        private final Inflater inflater = new Inflater();
+        private byte[] input = new byte[0];
+
+        void decompress(ByteBuffer compressed, byte[] output) throws IOException {
+            // Java 8 inflaters only accept arrays
+            final int length = compressed.remaining();
+            if (input.length < length) {
+                input = new byte[length];
+            }
+            compressed.duplicate().get(input, 0, length);
+
+            inflater.reset();
+            inflater.setInput(input, 0, length);
+            try {
+                int size = 0;
+                while (size < output.length) {
+                    int n = inflater.inflate(output, size, output.length - size);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    size += n;
+                }
+                if (size != output.length) {
+                    throw new IOException("Compressed record does not match its size!");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
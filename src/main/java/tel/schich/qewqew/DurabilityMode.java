@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines when the modifications of a queue are forced to the storage device.
+ *
+ * {@link #SYNC} forces after every operation, {@link #groupCommit(int, long, TimeUnit)} shares a single force between
+ * several operations and {@link #OS_MANAGED} leaves the write back to the operating system. Modifications that have
+ * not been forced yet can be lost on power loss or OS crash, they survive a crash of the JVM though.
+ */
+public final class DurabilityMode {
+    private static final long UNBOUNDED = 0;
+
+    /**
+     * Every operation is forced before it returns.
+     */
+    public static final DurabilityMode SYNC = new DurabilityMode(1, UNBOUNDED);
+
+    /**
+     * Modifications are only forced when a chunk is closed or {@link QewQew#sync()} is called explicitly.
+     */
+    public static final DurabilityMode OS_MANAGED = new DurabilityMode(UNBOUNDED, UNBOUNDED);
+
+    private final long maxPendingOperations;
+    private final long maxPendingNanos;
+
+    private DurabilityMode(long maxPendingOperations, long maxPendingNanos) {
+        this.maxPendingOperations = maxPendingOperations;
+        this.maxPendingNanos = maxPendingNanos;
+    }
+
+    /**
+     * Creates a mode that forces once either the given number of operations is pending or the oldest pending
+     * operation is older than the given delay. The delay is checked whenever an operation completes, an idle queue
+     * can be forced using {@link QewQew#sync()}.
+     *
+     * @param maxOperations the maximum number of unforced operations, 0 for no limit
+     * @param maxDelay the maximum age of the oldest unforced operation, 0 for no limit
+     * @param unit the unit of maxDelay
+     * @return the durability mode
+     */
+    public static DurabilityMode groupCommit(int maxOperations, long maxDelay, TimeUnit unit) {
+        if (maxOperations < 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("limits must not be negative!");
+        }
+        if (maxOperations == 0 && maxDelay == 0) {
+            throw new IllegalArgumentException("at least one limit is required, use OS_MANAGED otherwise!");
+        }
+        return new DurabilityMode(maxOperations, unit.toNanos(maxDelay));
+    }
+
+    boolean isSynchronous() {
+        return maxPendingOperations == 1;
+    }
+
+    boolean requiresSync(long pendingOperations, long pendingSinceNanos) {
+        if (maxPendingOperations != UNBOUNDED && pendingOperations >= maxPendingOperations) {
+            return true;
+        }
+        return maxPendingNanos != UNBOUNDED && System.nanoTime() - pendingSinceNanos >= maxPendingNanos;
+    }
+
+    @Override
+    public String toString() {
+        if (this == SYNC) {
+            return "DurabilityMode(SYNC)";
+        } else if (this == OS_MANAGED) {
+            return "DurabilityMode(OS_MANAGED)";
+        }
+        return "DurabilityMode(maxPendingOperations=" + maxPendingOperations + ", maxPendingNanos=" + maxPendingNanos + ")";
+    }
+}
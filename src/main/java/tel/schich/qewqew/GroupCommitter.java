@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Forces asynchronously enqueued elements on a background thread and completes their futures afterwards. Every force
+ * covers all elements that have been registered before it started, so elements registered while a force is running
+ * share the next one.
+ */
+final class GroupCommitter {
+    private final Runnable sync;
+    private final Thread thread;
+    private final Lock lock;
+    private final Condition pendingAvailable;
+
+    private List<CompletableFuture<Long>> pending;
+    private long firstPendingSequence;
+    private long nextSequence;
+    private boolean closed;
+
+    GroupCommitter(Runnable sync, String name) {
+        this.sync = sync;
+        this.lock = new ReentrantLock();
+        this.pendingAvailable = lock.newCondition();
+        this.pending = new ArrayList<>();
+        this.firstPendingSequence = 1;
+        this.nextSequence = 1;
+        this.closed = false;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Registers an element that has been written completely.
+     *
+     * @return the future that is completed with the sequence number of the element once it has been forced
+     */
+    CompletableFuture<Long> register() {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The queue has been closed!");
+            }
+            nextSequence++;
+            pending.add(future);
+            if (pending.size() == 1) {
+                pendingAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    private void run() {
+        List<CompletableFuture<Long>> batch = new ArrayList<>();
+        while (true) {
+            final long firstSequence;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    pendingAvailable.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                List<CompletableFuture<Long>> taken = pending;
+                pending = batch;
+                batch = taken;
+                firstSequence = firstPendingSequence;
+                firstPendingSequence = nextSequence;
+            } finally {
+                lock.unlock();
+            }
+
+            Throwable failure = null;
+            try {
+                sync.run();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (failure == null) {
+                    batch.get(i).complete(firstSequence + i);
+                } else {
+                    batch.get(i).completeExceptionally(failure);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Forces and completes all registered elements and stops the background thread.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            pendingAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -34,20 +34,31 @@ final class Head implements Closeable {
     final FileChannel file;
     final FileLock lock;
     final MappedByteBuffer map;
+    final QewFormat format;
 
-    int first;
+    long first;
+    volatile boolean dirty;
 
-    Head(Path path, FileChannel file, FileLock lock, MappedByteBuffer map, int first) {
+    Head(Path path, FileChannel file, FileLock lock, MappedByteBuffer map, QewFormat format, long first) {
         this.path = path;
         this.file = file;
         this.lock = lock;
         this.first = first;
         this.map = map;
+        this.format = format;
+    }
+
+    void sync() {
+        if (dirty) {
+            // cleared before forcing, so concurrent modifications are forced by the next sync
+            dirty = false;
+            map.force();
+        }
     }
 
     @Override
     public void close() throws IOException {
-        map.force();
+        sync();
         lock.release();
         file.close();
     }
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects the {@link QewMetrics} of a queue in counters and {@link LatencyHistogram}s and exposes them as
+ * {@link QewMetricsMXBean}. If the MXBean can't be registered, the metrics are still collected, but not exposed.
+ */
+final class JmxQewMetrics implements QewMetrics, QewMetricsMXBean {
+    private final LongAdder enqueuedElements = new LongAdder();
+    private final LongAdder enqueuedBytes = new LongAdder();
+    private final LongAdder dequeuedElements = new LongAdder();
+    private final LongAdder dequeuedBytes = new LongAdder();
+    private final LongAdder clearedElements = new LongAdder();
+    private final LongAdder clearedBytes = new LongAdder();
+    private final LongAdder chunksCreated = new LongAdder();
+    private final LongAdder chunksDropped = new LongAdder();
+    private final LongAdder corruptedEntries = new LongAdder();
+    private final LongAdder loadedElements = new LongAdder();
+    private final LongAdder loadedBytes = new LongAdder();
+    private final AtomicInteger blockedWaiters = new AtomicInteger();
+    private final LatencyHistogram enqueueLatency = new LatencyHistogram();
+    private final LatencyHistogram dequeueLatency = new LatencyHistogram();
+    private final LatencyHistogram syncLatency = new LatencyHistogram();
+    private final MBeanServer server;
+    private volatile ObjectName name;
+    private volatile long initialElements;
+    private volatile long initialBytes;
+
+    private JmxQewMetrics(MBeanServer server) {
+        this.server = server;
+    }
+
+    static QewMetrics register(Path queuePath) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final JmxQewMetrics metrics = new JmxQewMetrics(server);
+        try {
+            ObjectName name = objectName(queuePath);
+            server.registerMBean(metrics, name);
+            metrics.name = name;
+        } catch (JMException ignored) {
+            // collect without exposing
+        }
+        return metrics;
+    }
+
+    static ObjectName objectName(Path queuePath) throws JMException {
+        return new ObjectName("tel.schich.qewqew:type=QewQew,path=" + ObjectName.quote(queuePath.toString()));
+    }
+
+    @Override
+    public void opened(long elements, long bytes) {
+        initialElements = elements;
+        initialBytes = bytes;
+    }
+
+    @Override
+    public void loaded(long elements, long bytes) {
+        loadedElements.add(elements);
+        loadedBytes.add(bytes);
+    }
+
+    @Override
+    public void enqueued(int elements, long bytes, long nanos) {
+        enqueuedElements.add(elements);
+        enqueuedBytes.add(bytes);
+        enqueueLatency.record(nanos);
+    }
+
+    @Override
+    public void dequeued(int elements, long bytes, long nanos) {
+        dequeuedElements.add(elements);
+        dequeuedBytes.add(bytes);
+        dequeueLatency.record(nanos);
+    }
+
+    @Override
+    public void cleared() {
+        // everything that has not been dequeued up to here is gone
+        long depth = getDepth();
+        long depthBytes = getDepthBytes();
+        clearedElements.add(depth);
+        clearedBytes.add(depthBytes);
+    }
+
+    @Override
+    public void synced(long nanos) {
+        syncLatency.record(nanos);
+    }
+
+    @Override
+    public void chunkCreated() {
+        chunksCreated.increment();
+    }
+
+    @Override
+    public void chunkDropped() {
+        chunksDropped.increment();
+    }
+
+    @Override
+    public void corruptedEntry() {
+        corruptedEntries.increment();
+    }
+
+    @Override
+    public void waiterBlocked() {
+        blockedWaiters.incrementAndGet();
+    }
+
+    @Override
+    public void waiterResumed() {
+        blockedWaiters.decrementAndGet();
+    }
+
+    @Override
+    public void close() {
+        ObjectName name = this.name;
+        if (name == null) {
+            return;
+        }
+        this.name = null;
+        try {
+            server.unregisterMBean(name);
+        } catch (JMException ignored) {
+
+        }
+    }
+
+    @Override
+    public long getDepth() {
+        return initialElements + loadedElements.sum() + enqueuedElements.sum() - dequeuedElements.sum() - clearedElements.sum()
+                - corruptedEntries.sum();
+    }
+
+    @Override
+    public long getDepthBytes() {
+        return initialBytes + loadedBytes.sum() + enqueuedBytes.sum() - dequeuedBytes.sum() - clearedBytes.sum();
+    }
+
+    @Override
+    public long getEnqueuedElements() {
+        return enqueuedElements.sum();
+    }
+
+    @Override
+    public long getEnqueuedBytes() {
+        return enqueuedBytes.sum();
+    }
+
+    @Override
+    public long getDequeuedElements() {
+        return dequeuedElements.sum();
+    }
+
+    @Override
+    public long getDequeuedBytes() {
+        return dequeuedBytes.sum();
+    }
+
+    @Override
+    public long getChunksCreated() {
+        return chunksCreated.sum();
+    }
+
+    @Override
+    public long getChunksDropped() {
+        return chunksDropped.sum();
+    }
+
+    @Override
+    public long getCorruptedEntries() {
+        return corruptedEntries.sum();
+    }
+
+    @Override
+    public int getBlockedWaiters() {
+        return blockedWaiters.get();
+    }
+
+    @Override
+    public LatencySnapshot getEnqueueLatency() {
+        return enqueueLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getDequeueLatency() {
+        return dequeueLatency.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getSyncLatency() {
+        return syncLatency.snapshot();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A {@link PollableQewQew} for any number of producer threads and exactly one consumer thread. Producers reserve
+ * space in the tail chunk using a CAS, copy their payloads in parallel and publish them in reservation order, only
+ * rolling over to a new chunk is done under a lock. The consumer side behaves like {@link SpscPollableQewQew}.
+ */
+public class MpscPollableQewQew extends SpscPollableQewQew {
+
+    public MpscPollableQewQew(SimpleQewQew qew) {
+        super(qew);
+    }
+
+    public MpscPollableQewQew(SimpleQewQew qew, WaitStrategy waitStrategy) {
+        super(qew, waitStrategy);
+    }
+
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize) throws IOException {
+        return new MpscPollableQewQew(new SimpleQewQew(queuePath, chunkSize));
+    }
+
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize, QewOptions options, WaitStrategy waitStrategy) throws IOException {
+        return new MpscPollableQewQew(new SimpleQewQew(queuePath, chunkSize, options), waitStrategy);
+    }
+
+    @Override
+    public void enqueue(byte[] elem) throws IOException {
+        qew.enqueueConcurrently(elem, 0, elem.length);
+        signal();
+    }
+
+    @Override
+    public void enqueueAll(Iterable<? extends byte[]> elems) throws IOException {
+        try {
+            qew.enqueueAllConcurrently(elems);
+        } finally {
+            signal();
+        }
+    }
+}
@@ -23,6 +23,7 @@
 package tel.schich.qewqew;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -30,6 +31,7 @@ public interface PollableQewQew<E> extends QewQew<E> {
     boolean poll(long timeout, TimeUnit unit) throws InterruptedException;
     E peek(long timeout, TimeUnit unit) throws IOException, InterruptedException;
     E dequeue(long timeout, TimeUnit unit) throws IOException, InterruptedException;
+    List<E> poll(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException;
     E dequeueIf(long timeout, TimeUnit unit, DequeueCondition<E> condition) throws IOException, InterruptedException, ExecutionException;
 
     interface DequeueCondition<E> {
@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded pool of reusable objects like deflaters and inflaters, which hold native memory. Unlike thread locals,
+ * pooled objects are shared by short lived threads, virtual threads in particular would otherwise each allocate their
+ * own. Objects that do not fit into the pool anymore are disposed.
+ */
+final class Pool<T> {
+    private static final int DEFAULT_CAPACITY = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final ArrayBlockingQueue<T> objects;
+    private final Supplier<T> factory;
+    private final Consumer<T> disposer;
+
+    Pool(Supplier<T> factory, Consumer<T> disposer) {
+        this(DEFAULT_CAPACITY, factory, disposer);
+    }
+
+    Pool(int capacity, Supplier<T> factory, Consumer<T> disposer) {
+        this.objects = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+        this.disposer = disposer;
+    }
+
+    T take() {
+        T object = objects.poll();
+        if (object == null) {
+            return factory.get();
+        }
+        return object;
+    }
+
+    void release(T object) {
+        if (!objects.offer(object)) {
+            disposer.accept(object);
+        }
+    }
+}
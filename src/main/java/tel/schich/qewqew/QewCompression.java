@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the batches of elements enqueued by {@link SimpleQewQew#enqueueAll(Iterable)}. Each batch record stores
+ * the id of the compression it has been compressed with, a queue can only read records of the compression it has been
+ * opened with and of {@link #DEFLATE}. Ids below 16 are reserved for built-in compressions.
+ */
+public interface QewCompression {
+
+    /**
+     * Compresses using {@link Deflater} with {@link Deflater#BEST_SPEED}.
+     */
+    QewCompression DEFLATE = deflate(Deflater.BEST_SPEED);
+
+    /**
+     * @param level the compression level from 0 to 9
+     * @return a compression using {@link Deflater} with the given level
+     */
+    static QewCompression deflate(int level) {
+        return new DeflateCompression(level);
+    }
+
+    /**
+     * @return the id stored in each record, from 0 to 255
+     */
+    int getId();
+
+    /**
+     * Compresses the given region of the input. Might be called concurrently.
+     *
+     * @param input the uncompressed bytes
+     * @param offset the offset of the region
+     * @param length the length of the region
+     * @return the compressed bytes
+     */
+    byte[] compress(byte[] input, int offset, int length);
+
+    /**
+     * Decompresses the remaining bytes of the input into the output, which is exactly as large as the uncompressed
+     * bytes. The input is a read-only view of the mapped chunk. Might be called concurrently.
+     *
+     * @param input the compressed bytes
+     * @param output the array to decompress into
+     * @throws IOException if the input is not valid
+     */
+    void decompress(ByteBuffer input, byte[] output) throws IOException;
+}
@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.ByteBuffer;
+
+import static tel.schich.qewqew.SimpleQewQew.NULL_REF;
+import static tel.schich.qewqew.SimpleQewQew.PTR_SIZE;
+import static tel.schich.qewqew.SimpleQewQew.getUShort;
+import static tel.schich.qewqew.SimpleQewQew.putUShort;
+
+/**
+ * The on-disk format version of a queue. Version 1 is the original format: the queue header file only contains the
+ * first chunk ref, chunk refs are 16 bit ids that wrap around and entries have a 16 bit length. Version 2 prefixes the
+ * queue header with a magic number, the version and flags, uses 64 bit chunk ids that never wrap around and widens
+ * the entry length to 32 bits, of which the upper 4 bits are reserved for entry flags.
+ * Elements that span chunks are split into fragments, the {@link #ENTRY_FLAG_CONTINUED} flag marks all but the last
+ * fragment and the {@link #ENTRY_FLAG_CONTINUATION} flag all but the first. Every fragment but the first is the first
+ * entry of its chunk.
+ * <p>
+ * Version 2 queues with the {@link #HEAD_FLAG_CHECKSUMS} flag prefix every entry with a CRC32C of its length field and
+ * its data. Queues with the {@link #HEAD_FLAG_COMPRESSION} flag may contain batch entries, which are marked by the
+ * {@link #ENTRY_FLAG_BATCH} flag and hold several compressed elements, and their chunk header is extended by the
+ * number of elements that have already been dequeued from the batch at the head.
+ * <p>
+ * New queues are created with the {@link #CURRENT} version, existing queues keep their version unless they are empty.
+ */
+final class QewFormat {
+    static final int MAGIC = 0x51455751; // "QEWQ"
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = MAGIC_OFFSET + Integer.BYTES;
+    static final int FLAGS_OFFSET = VERSION_OFFSET + Short.BYTES;
+    static final int PREAMBLE_SIZE = FLAGS_OFFSET + Short.BYTES;
+
+    static final int HEAD_FLAG_CHECKSUMS = 1;
+    static final int HEAD_FLAG_COMPRESSION = 1 << 1;
+    private static final int SUPPORTED_HEAD_FLAGS = HEAD_FLAG_CHECKSUMS | HEAD_FLAG_COMPRESSION;
+
+    static final int ENTRY_FLAG_BITS = 4;
+    static final int ENTRY_LENGTH_MASK = -1 >>> ENTRY_FLAG_BITS;
+    static final int ENTRY_FLAG_CONTINUED = 1 << 31;
+    static final int ENTRY_FLAG_CONTINUATION = 1 << 30;
+    static final int ENTRY_FLAG_BATCH = 1 << 29;
+
+    private static final int V1_MAX_ID = 0xFFFF;
+
+    static final QewFormat V1 = new QewFormat(1, 0, 0, Short.BYTES, Short.BYTES, 0xFFFF);
+    // one instance per combination of flags, so formats can be compared by identity
+    private static final QewFormat[] V2_VARIANTS = v2Variants();
+    static final QewFormat V2 = V2_VARIANTS[0];
+    static final QewFormat V2_CHECKSUMS = V2_VARIANTS[HEAD_FLAG_CHECKSUMS];
+    static final QewFormat CURRENT = V2;
+
+    final int version;
+    final int flags;
+    final int firstRefOffset;
+    final int headSize;
+    final int refSize;
+    final int headIndexOffset;
+    final int chunkHeaderSize;
+    final boolean checksums;
+    final boolean compression;
+    final int lengthOffset;
+    final int lengthSize;
+    final int entryHeaderSize;
+    final int maxEntryLength;
+
+    private QewFormat(int version, int flags, int firstRefOffset, int refSize, int lengthSize, int maxEntryLength) {
+        this.version = version;
+        this.flags = flags;
+        this.firstRefOffset = firstRefOffset;
+        this.headSize = firstRefOffset + refSize;
+        this.refSize = refSize;
+        this.headIndexOffset = PTR_SIZE + PTR_SIZE + refSize;
+        this.compression = (flags & HEAD_FLAG_COMPRESSION) != 0;
+        this.chunkHeaderSize = headIndexOffset + (compression ? Integer.BYTES : 0);
+        this.checksums = (flags & HEAD_FLAG_CHECKSUMS) != 0;
+        this.lengthOffset = checksums ? Integer.BYTES : 0;
+        this.lengthSize = lengthSize;
+        this.entryHeaderSize = lengthOffset + lengthSize;
+        this.maxEntryLength = maxEntryLength;
+    }
+
+    static QewFormat forVersion(int version, int flags) throws QewFormatException {
+        if ((flags & ~SUPPORTED_HEAD_FLAGS) != 0) {
+            throw new QewFormatException("Unsupported format flags: " + Integer.toHexString(flags));
+        }
+        switch (version) {
+            case 1:
+                return V1;
+            case 2:
+                return V2_VARIANTS[flags];
+            default:
+                throw new QewFormatException("Unsupported format version: " + version);
+        }
+    }
+
+    /**
+     * Returns the current format with the given head flags.
+     */
+    static QewFormat current(int flags) {
+        return V2_VARIANTS[flags];
+    }
+
+    private static QewFormat[] v2Variants() {
+        QewFormat[] variants = new QewFormat[SUPPORTED_HEAD_FLAGS + 1];
+        for (int flags = 0; flags < variants.length; flags++) {
+            variants[flags] = new QewFormat(2, flags, PREAMBLE_SIZE, Long.BYTES, Integer.BYTES, ENTRY_LENGTH_MASK);
+        }
+        return variants;
+    }
+
+    /**
+     * Writes the preamble of the queue header, which version 1 does not have.
+     */
+    void writePreamble(ByteBuffer head) {
+        if (version > 1) {
+            head.putInt(MAGIC_OFFSET, MAGIC);
+            putUShort(head, VERSION_OFFSET, version);
+            putUShort(head, FLAGS_OFFSET, flags);
+        }
+    }
+
+    long getRef(ByteBuffer buf, int index) {
+        if (refSize == Short.BYTES) {
+            return getUShort(buf, index);
+        }
+        return buf.getLong(index);
+    }
+
+    void putRef(ByteBuffer buf, int index, long ref) {
+        if (refSize == Short.BYTES) {
+            putUShort(buf, index, (int) ref);
+        } else {
+            buf.putLong(index, ref);
+        }
+    }
+
+    /**
+     * Returns the id of the chunk following the chunk with the given id, 16 bit ids skip the {@code NULL_REF} when
+     * they wrap around.
+     */
+    long nextId(long id) {
+        if (refSize > Short.BYTES) {
+            return id + 1;
+        }
+        long nextId = (id + 1) % V1_MAX_ID;
+        if (nextId == NULL_REF) {
+            nextId++;
+        }
+        return nextId;
+    }
+
+    int getLength(ByteBuffer buf, int index) {
+        if (lengthSize == Short.BYTES) {
+            return getUShort(buf, index);
+        }
+        return buf.getInt(index + lengthOffset) & ENTRY_LENGTH_MASK;
+    }
+
+    int getFlags(ByteBuffer buf, int index) {
+        if (lengthSize == Short.BYTES) {
+            return 0;
+        }
+        return buf.getInt(index + lengthOffset) & ~ENTRY_LENGTH_MASK;
+    }
+
+    boolean supportsEntryFlags() {
+        return lengthSize > Short.BYTES;
+    }
+
+    /**
+     * Writes the checksum of the entry at the given index, its length and data have to be written already.
+     */
+    void putChecksum(ByteBuffer buf, int index) {
+        if (checksums) {
+            buf.putInt(index, computeChecksum(buf, index));
+        }
+    }
+
+    /**
+     * Checks the checksum of the entry at the given index, which has to end before the given limit. Entries of formats
+     * without checksums are only checked against the limit.
+     */
+    boolean verify(ByteBuffer buf, int index, int limit) {
+        if (index + entryHeaderSize > limit) {
+            return false;
+        }
+        final long end = (long) index + entryHeaderSize + getLength(buf, index);
+        if (end > limit) {
+            return false;
+        }
+        return !checksums || buf.getInt(index) == computeChecksum(buf, index);
+    }
+
+    private int computeChecksum(ByteBuffer buf, int index) {
+        return Crc32c.compute(buf, index + lengthOffset, lengthSize + getLength(buf, index));
+    }
+
+    /**
+     * Writes the header of an entry, version 1 has no entry flags, so flags must be 0 in that case.
+     */
+    void putLength(ByteBuffer buf, int index, int length) {
+        if (lengthSize == Short.BYTES) {
+            putUShort(buf, index, length);
+        } else {
+            buf.putInt(index + lengthOffset, length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QewFormat(version=" + version + ", flags=" + flags + ")";
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+/**
+ * Receives measurements of a single queue. All methods do nothing by default, so implementations only override what
+ * they are interested in. Methods might be called concurrently and should not block. Durations are in nanoseconds,
+ * byte counts only cover the element data.
+ */
+public interface QewMetrics {
+
+    /**
+     * Discards all measurements, the queue does not take any timestamps if it is given this instance.
+     */
+    QewMetrics NONE = new QewMetrics() {
+    };
+
+    /**
+     * Called once the queue has been opened with the elements that already were in it.
+     */
+    default void opened(long elements, long bytes) {
+    }
+
+    /**
+     * Called once a chunk that has not been opened together with the queue is opened, with the elements in it.
+     */
+    default void loaded(long elements, long bytes) {
+    }
+
+    default void enqueued(int elements, long bytes, long nanos) {
+    }
+
+    default void dequeued(int elements, long bytes, long nanos) {
+    }
+
+    /**
+     * Called when all elements have been removed at once.
+     */
+    default void cleared() {
+    }
+
+    /**
+     * Called after modifications have been forced to the storage device.
+     */
+    default void synced(long nanos) {
+    }
+
+    default void chunkCreated() {
+    }
+
+    default void chunkDropped() {
+    }
+
+    /**
+     * Called when an element has been skipped, because its entry did not match its checksum.
+     */
+    default void corruptedEntry() {
+    }
+
+    /**
+     * Called when a consumer starts blocking on an empty queue.
+     */
+    default void waiterBlocked() {
+    }
+
+    /**
+     * Called when a blocked consumer continues, either because of an element or a timeout.
+     */
+    default void waiterResumed() {
+    }
+
+    /**
+     * Called when the queue is closed.
+     */
+    default void close() {
+    }
+}
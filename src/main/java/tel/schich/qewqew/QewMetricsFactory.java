@@ -0,0 +1,46 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.file.Path;
+
+/**
+ * Creates the {@link QewMetrics} for each queue that is opened with a {@link QewOptions} instance.
+ */
+@FunctionalInterface
+public interface QewMetricsFactory {
+
+    QewMetricsFactory NONE = queuePath -> QewMetrics.NONE;
+
+    /**
+     * Registers an MXBean named {@code tel.schich.qewqew:type=QewQew,path=<queue path>} for each queue at the platform
+     * MBean server.
+     */
+    QewMetricsFactory JMX = JmxQewMetrics::register;
+
+    /**
+     * @param queuePath the absolute path of the queue header file
+     * @return the metrics of the queue
+     */
+    QewMetrics create(Path queuePath);
+}
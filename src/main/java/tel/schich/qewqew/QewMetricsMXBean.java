@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+/**
+ * The management interface of the {@link QewMetricsFactory#JMX} metrics. Depths are the number of elements and data
+ * bytes currently in the queue, the counts are totals since the queue has been opened. Skipped corrupted entries are
+ * not part of the depth anymore, but their bytes are unknown and still part of the depth in bytes.
+ * <p>
+ * When a queue is reopened, only its head and tail chunk are read. The chunks in between are read once the consumer
+ * reaches them and their elements are only added to the depths then, so until the consumer has reached the tail chunk
+ * the depths of a reopened queue under-report the queue and are lower bounds only. Elements enqueued since the queue
+ * has been opened are always part of the depths.
+ */
+public interface QewMetricsMXBean {
+    long getDepth();
+
+    long getDepthBytes();
+
+    long getEnqueuedElements();
+
+    long getEnqueuedBytes();
+
+    long getDequeuedElements();
+
+    long getDequeuedBytes();
+
+    long getChunksCreated();
+
+    long getChunksDropped();
+
+    long getCorruptedEntries();
+
+    int getBlockedWaiters();
+
+    LatencySnapshot getEnqueueLatency();
+
+    LatencySnapshot getDequeueLatency();
+
+    LatencySnapshot getSyncLatency();
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Immutable options of a {@link SimpleQewQew}, options are changed by deriving a new instance using the with methods.
+ */
+public final class QewOptions {
+    public static final QewOptions DEFAULT = new QewOptions(DurabilityMode.SYNC, 0, null, QewMetricsFactory.JMX, false, false, null, 0);
+
+    private final DurabilityMode durability;
+    private final int spareChunks;
+    private final Executor chunkAllocator;
+    private final QewMetricsFactory metrics;
+    private final boolean elementSpanning;
+    private final boolean checksums;
+    private final QewCompression compression;
+    private final int maxOpenChunks;
+
+    private QewOptions(DurabilityMode durability, int spareChunks, Executor chunkAllocator, QewMetricsFactory metrics,
+                       boolean elementSpanning, boolean checksums, QewCompression compression, int maxOpenChunks) {
+        this.durability = durability;
+        this.spareChunks = spareChunks;
+        this.chunkAllocator = chunkAllocator;
+        this.metrics = metrics;
+        this.elementSpanning = elementSpanning;
+        this.checksums = checksums;
+        this.compression = compression;
+        this.maxOpenChunks = maxOpenChunks;
+    }
+
+    public DurabilityMode getDurability() {
+        return durability;
+    }
+
+    public QewOptions withDurability(DurabilityMode durability) {
+        if (durability == null) {
+            throw new NullPointerException("durability must not be null!");
+        }
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public int getSpareChunks() {
+        return spareChunks;
+    }
+
+    /**
+     * Sets the maximum number of depleted chunk files that are kept as spares instead of being deleted. New chunks are
+     * taken from the spares if possible, which turns the creation and deletion of chunk files into renames.
+     *
+     * @param spareChunks the maximum number of spare chunk files, 0 disables recycling
+     * @return the derived options
+     */
+    public QewOptions withSpareChunks(int spareChunks) {
+        if (spareChunks < 0) {
+            throw new IllegalArgumentException("spareChunks must not be negative!");
+        }
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public Executor getChunkAllocator() {
+        return chunkAllocator;
+    }
+
+    /**
+     * Sets an executor that prepares the next tail chunk ahead of the writer: the chunk file is created, mapped and
+     * faulted in, so rolling over to it only requires swapping the tail chunk.
+     *
+     * @param chunkAllocator the executor to prepare chunks on, null disables the preparation
+     * @return the derived options
+     */
+    public QewOptions withChunkAllocator(Executor chunkAllocator) {
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public QewMetricsFactory getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the factory of the metrics each queue reports to. By default the metrics are exposed through JMX,
+     * {@link QewMetricsFactory#NONE} disables them including the time measurements.
+     *
+     * @param metrics the factory of the metrics
+     * @return the derived options
+     */
+    public QewOptions withMetrics(QewMetricsFactory metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("metrics must not be null!");
+        }
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public boolean isElementSpanning() {
+        return elementSpanning;
+    }
+
+    /**
+     * Allows elements that do not fit into a single chunk, they are split into fragments across a chain of chunks.
+     * Elements that fit into a chunk are never split. Spanning requires format version 2 and is not supported by the
+     * lock free {@link SpscPollableQewQew} and {@link MpscPollableQewQew}.
+     *
+     * @param elementSpanning whether elements may span multiple chunks
+     * @return the derived options
+     */
+    public QewOptions withElementSpanning(boolean elementSpanning) {
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public boolean isChecksums() {
+        return checksums;
+    }
+
+    /**
+     * Prefixes every entry with a CRC32C of its length and data, which is verified before the entry is read. Corrupted
+     * entries are skipped. The checksums are part of the on-disk format, so this only applies to new or empty queues,
+     * other queues keep their format.
+     *
+     * @param checksums whether entries are checksummed
+     * @return the derived options
+     */
+    public QewOptions withChecksums(boolean checksums) {
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public QewCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Compresses the elements of each {@link SimpleQewQew#enqueueAll(Iterable)} call in batches of up to 64 KiB into
+     * single records, which are decompressed once the first of their elements is read. Elements that are enqueued
+     * individually, claimed or too large for a batch are stored uncompressed, as are batches that do not shrink. The
+     * batch records are part of the format, so this only applies to new or empty queues, other queues keep their format.
+     *
+     * @param compression the compression of the batches, null disables compression
+     * @return the derived options
+     */
+    public QewOptions withCompression(QewCompression compression) {
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    public int getMaxOpenChunks() {
+        return maxOpenChunks;
+    }
+
+    /**
+     * Limits the number of chunks that are open and mapped at the same time, which bounds the file descriptors and
+     * mappings of deep queues. Whenever the consumer moves on to the next chunk or a producer of a shared queue rolls
+     * over to a new chunk, chunks between the head and the tail are closed until the limit is met again, starting with
+     * the chunk farthest from the head. They are mapped again once the consumer reaches them. The head chunk, the
+     * chunks the consumer is reading and the two most recent chunks are never closed, so the limit is a soft one.
+     *
+     * @param maxOpenChunks the maximum number of open chunks, 0 removes the limit
+     * @return the derived options
+     */
+    public QewOptions withMaxOpenChunks(int maxOpenChunks) {
+        if (maxOpenChunks < 0) {
+            throw new IllegalArgumentException("maxOpenChunks must not be negative!");
+        }
+        return new QewOptions(durability, spareChunks, chunkAllocator, metrics, elementSpanning, checksums, compression, maxOpenChunks);
+    }
+
+    @Override
+    public String toString() {
+        return "QewOptions(durability=" + durability + ", spareChunks=" + spareChunks + ", chunkAllocator=" + chunkAllocator
+                + ", metrics=" + metrics + ", elementSpanning=" + elementSpanning
+                + ", checksums=" + checksums + ", compression=" + compression + ", maxOpenChunks=" + maxOpenChunks + ")";
+    }
+}
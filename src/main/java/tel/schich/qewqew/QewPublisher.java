@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A Reactive Streams {@link Publisher} of the elements of a queue, which requires the optional
+ * {@code org.reactivestreams:reactive-streams} dependency. On Java 9 and later it can be turned into a
+ * {@code java.util.concurrent.Flow.Publisher} using {@code org.reactivestreams.FlowAdapters}.
+ * <p>
+ * Elements are only read from the queue as they are requested, up to a batch size at a time, and each element is
+ * dequeued once {@code onNext} returned, so unacknowledged elements remain in the queue. {@code onNext} receives a
+ * read-only view of the mapped chunk, which must not be used after {@code onNext} returned. If {@code onNext} throws,
+ * the subscription is cancelled and the element remains in the queue.
+ * <p>
+ * The publisher is the only consumer of the queue and supports a single subscriber at a time. Elements are delivered
+ * on the given executor, no thread is blocked while the queue is empty: producers schedule the delivery once there is
+ * outstanding demand.
+ */
+public final class QewPublisher implements Publisher<ByteBuffer> {
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final Exception CANCELLED = new Exception("cancelled", null, false, false) {
+    };
+
+    private final Source source;
+    private final Listeners listeners;
+    private final Executor executor;
+    private final int batchSize;
+    private final AtomicReference<QewSubscription> active;
+
+    private QewPublisher(Source source, Listeners listeners, Executor executor, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive!");
+        }
+        this.source = source;
+        this.listeners = listeners;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.active = new AtomicReference<>();
+    }
+
+    public static QewPublisher from(SpscPollableQewQew queue) {
+        return from(queue, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Publishes the elements of a lock free queue, which includes {@link MpscPollableQewQew}.
+     *
+     * @param queue the queue to consume
+     * @param executor the executor to deliver the elements on
+     * @param batchSize the maximum number of elements dequeued at once
+     * @return the publisher
+     */
+    public static QewPublisher from(SpscPollableQewQew queue, Executor executor, int batchSize) {
+        return new QewPublisher(queue.qew::consumeAll, queue::setEnqueueListener, executor, batchSize);
+    }
+
+    public static QewPublisher from(SimplePollableQewQew<byte[]> queue) {
+        return from(queue, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Publishes the elements of a locking queue, the lock is held while a batch is delivered.
+     *
+     * @param queue the queue to consume, which has to wrap a {@link SimpleQewQew}
+     * @param executor the executor to deliver the elements on
+     * @param batchSize the maximum number of elements dequeued at once
+     * @return the publisher
+     */
+    public static QewPublisher from(SimplePollableQewQew<byte[]> queue, Executor executor, int batchSize) {
+        if (!(queue.qew instanceof SimpleQewQew)) {
+            throw new IllegalArgumentException("Only queues of a SimpleQewQew can be published!");
+        }
+        return new QewPublisher(queue::consumeAll, queue::setEnqueueListener, executor, batchSize);
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null!");
+        }
+        final QewSubscription subscription = new QewSubscription(subscriber);
+        if (!active.compareAndSet(null, subscription)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The queue already has a subscriber!"));
+            return;
+        }
+        // registered first, so enqueues during onSubscribe are not missed by requests made in there
+        listeners.set(subscription::elementsAvailable);
+        subscriber.onSubscribe(subscription);
+    }
+
+    @FunctionalInterface
+    private interface Source {
+        int consumeAll(ElementHandler<ByteBuffer> handler, int max) throws IOException, ExecutionException;
+    }
+
+    @FunctionalInterface
+    private interface Listeners {
+        void set(Runnable listener);
+    }
+
+    private final class QewSubscription implements Subscription, Runnable {
+        private final Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand;
+        private final AtomicInteger work;
+        private volatile boolean cancelled;
+
+        QewSubscription(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+            this.demand = new AtomicLong();
+            this.work = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive!"));
+                return;
+            }
+            long current;
+            do {
+                current = demand.get();
+                if (current == Long.MAX_VALUE) {
+                    break;
+                }
+            } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                listeners.set(null);
+                active.compareAndSet(this, null);
+            }
+        }
+
+        void elementsAvailable() {
+            if (demand.get() > 0) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                deliver();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (!cancelled) {
+                final long requested = demand.get();
+                if (requested == 0) {
+                    return;
+                }
+                final int consumed;
+                try {
+                    consumed = source.consumeAll(this::next, (int) Math.min(requested, batchSize));
+                } catch (ExecutionException e) {
+                    // either cancelled or onNext failed, the element remains in the queue in both cases
+                    cancel();
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    cancel();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (consumed == 0) {
+                    // producers schedule the delivery again
+                    return;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-consumed);
+                }
+            }
+        }
+
+        private void next(ByteBuffer elem) throws Exception {
+            if (cancelled) {
+                throw CANCELLED;
+            }
+            subscriber.onNext(elem);
+        }
+    }
+}
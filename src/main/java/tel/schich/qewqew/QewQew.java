@@ -24,13 +24,58 @@ package tel.schich.qewqew;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 
 public interface QewQew<E> extends Closeable {
     long getChunkSize();
     long getMaxElementSize();
     E peek() throws IOException;
     boolean dequeue() throws IOException;
+
+    /**
+     * Dequeues up to max elements into the given collection. Implementations should commit the dequeued elements as a
+     * single operation, this default peeks and dequeues them one by one.
+     *
+     * @param target the collection to add the elements to
+     * @param max the maximum number of elements to dequeue
+     * @return the number of dequeued elements
+     * @throws IOException if an element could not be read or dequeued
+     */
+    default int drainTo(Collection<? super E> target, int max) throws IOException {
+        int count = 0;
+        E elem;
+        while (count < max && (elem = peek()) != null) {
+            target.add(elem);
+            dequeue();
+            count++;
+        }
+        return count;
+    }
+
     void enqueue(E elem) throws IOException;
+
+    /**
+     * Enqueues all elements in order. Implementations should enqueue and force them as a single batch, this default
+     * enqueues them one by one.
+     *
+     * @param elems the elements to enqueue
+     * @throws IOException if an element could not be enqueued, elements in front of it remain enqueued
+     */
+    default void enqueueAll(Iterable<? extends E> elems) throws IOException {
+        for (E elem : elems) {
+            enqueue(elem);
+        }
+    }
+
     boolean isEmpty();
     boolean clear() throws IOException;
+
+    /**
+     * Forces all modifications that have not been forced yet. This default does nothing, as it is meant for
+     * implementations that force every operation.
+     *
+     * @throws IOException if the modifications could not be forced
+     */
+    default void sync() throws IOException {
+    }
 }
@@ -0,0 +1,220 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link QewQew} of arbitrary elements on top of a {@link SimpleQewQew}, which are converted by a {@link Codec}.
+ * Elements are encoded straight into space claimed in the tail chunk and decoded from a read-only view of the head
+ * entry, so no intermediate arrays are involved. Elements whose {@link Codec#maxSize(Object)} does not fit into a
+ * chunk and the elements of {@link #enqueueAll(Iterable)} are encoded into a reused buffer first, which is only kept
+ * as long as it does not exceed {@link #MAX_RETAINED_SCRATCH_SIZE} bytes.
+ *
+ * @param <E> the element type
+ */
+public class SerializingQewQew<E> implements QewQew<E> {
+    static final int SCRATCH_SIZE = 256;
+    static final int MAX_RETAINED_SCRATCH_SIZE = 64 * 1024;
+
+    private final SimpleQewQew qew;
+    private final Codec<E> codec;
+    private ByteBuffer scratch;
+
+    public SerializingQewQew(SimpleQewQew qew, Codec<E> codec) {
+        this.qew = qew;
+        this.codec = codec;
+        this.scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+    }
+
+    public static <E> SerializingQewQew<E> from(Path queuePath, long chunkSize, Codec<E> codec) throws IOException {
+        return new SerializingQewQew<>(new SimpleQewQew(queuePath, chunkSize), codec);
+    }
+
+    public static <E> SerializingQewQew<E> from(Path queuePath, long chunkSize, QewOptions options, Codec<E> codec) throws IOException {
+        return new SerializingQewQew<>(new SimpleQewQew(queuePath, chunkSize, options), codec);
+    }
+
+    @Override
+    public long getChunkSize() {
+        return qew.getChunkSize();
+    }
+
+    /**
+     * Returns the maximum size of an encoded element.
+     *
+     * @return the maximum encoded size
+     */
+    @Override
+    public long getMaxElementSize() {
+        return qew.getMaxElementSize();
+    }
+
+    @Override
+    public E peek() {
+        ByteBuffer view = qew.peekView();
+        if (view == null) {
+            return null;
+        }
+        return codec.decode(view);
+    }
+
+    @Override
+    public boolean dequeue() throws IOException {
+        return qew.dequeue();
+    }
+
+    /**
+     * Passes the decoded head element to the given handler and dequeues it if the handler completes normally.
+     *
+     * @param handler the handler to pass the head element to
+     * @return true if an element has been consumed, false if the queue is empty
+     * @throws IOException if the element could not be dequeued
+     * @throws ExecutionException if the handler failed, the element remains in the queue in this case
+     */
+    public boolean consume(ElementHandler<? super E> handler) throws IOException, ExecutionException {
+        return qew.consume(view -> handler.handle(codec.decode(view)));
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> target, int max) throws IOException {
+        try {
+            return qew.consumeAll(view -> target.add(codec.decode(view)), max);
+        } catch (ExecutionException e) {
+            // neither the codec nor the collection throw checked exceptions
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    @Override
+    public void enqueue(E elem) throws IOException {
+        final int maxSize = codec.maxSize(elem);
+        if (maxSize > qew.getMaxContiguousElementSize()) {
+            // the element might still fit or span chunks
+            try {
+                qew.enqueue(encode(elem));
+            } finally {
+                shrinkScratch();
+            }
+            return;
+        }
+        final ByteBuffer claimed = qew.claim(maxSize);
+        try {
+            codec.encode(elem, claimed);
+        } catch (RuntimeException e) {
+            qew.abandonClaim();
+            throw e;
+        }
+        qew.commit(claimed.position());
+    }
+
+    @Override
+    public void enqueueAll(Iterable<? extends E> elems) throws IOException {
+        int[] ends = new int[16];
+        int count = 0;
+        scratch.clear();
+        for (E elem : elems) {
+            ensureScratch(codec.maxSize(elem));
+            codec.encode(elem, scratch);
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = scratch.position();
+        }
+        // the buffer might have been grown while encoding, so the parts are sliced afterwards
+        final ByteBuffer[] encoded = new ByteBuffer[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            ByteBuffer part = scratch.duplicate();
+            part.limit(ends[i]);
+            part.position(start);
+            encoded[i] = part;
+            start = ends[i];
+        }
+        try {
+            qew.enqueueAll(encoded);
+        } finally {
+            shrinkScratch();
+        }
+    }
+
+    private ByteBuffer encode(E elem) {
+        scratch.clear();
+        ensureScratch(codec.maxSize(elem));
+        codec.encode(elem, scratch);
+        scratch.flip();
+        return scratch;
+    }
+
+    private void ensureScratch(int size) {
+        if (scratch.remaining() < size) {
+            long required = (long) scratch.position() + size;
+            if (required > Integer.MAX_VALUE) {
+                throw new BufferOverflowException();
+            }
+            ByteBuffer grown = ByteBuffer.allocate((int) Math.max(required, Math.min(2L * scratch.capacity(), Integer.MAX_VALUE)));
+            scratch.flip();
+            grown.put(scratch);
+            scratch = grown;
+        }
+    }
+
+    int getScratchCapacity() {
+        return scratch.capacity();
+    }
+
+    /**
+     * Drops a buffer that has been grown for oversized elements, so it is not kept for the lifetime of the queue.
+     */
+    private void shrinkScratch() {
+        if (scratch.capacity() > MAX_RETAINED_SCRATCH_SIZE) {
+            scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return qew.isEmpty();
+    }
+
+    @Override
+    public boolean clear() throws IOException {
+        return qew.clear();
+    }
+
+    @Override
+    public void sync() {
+        qew.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        qew.close();
+    }
+}
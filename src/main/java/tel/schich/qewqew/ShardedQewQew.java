@@ -0,0 +1,376 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue that stripes its elements across several independent shards, which can be placed on different devices by
+ * passing queue paths on different mount points. Each shard has its own writer, lock and files, so producers that
+ * enqueue into different shards do not contend and their forces run in parallel.
+ * <p>
+ * Elements are assigned to shards round-robin or by the hash of a key. The order of elements is only preserved within
+ * a shard, so elements of the same key are consumed in order. The shards can either be consumed in parallel through
+ * {@link #getShard(int)} or through the merged view of this queue, which takes elements from the shards in turn.
+ * The merged view is meant for a single consumer thread and must not be mixed with consumers of individual shards.
+ * <p>
+ * Consumers of the merged view wait on a condition that is signalled by the enqueue listeners of the shards, which
+ * replaces listeners like a {@link QewPublisher} of a shard. Shards other than {@link SimplePollableQewQew} and
+ * {@link SpscPollableQewQew} do not notify the merged view, so it polls them every {@link #POLL_INTERVAL_MILLIS}.
+ */
+public class ShardedQewQew implements PollableQewQew<byte[]> {
+
+    static final long POLL_INTERVAL_MILLIS = 10;
+
+    private final List<PollableQewQew<byte[]>> shards;
+    private final AtomicInteger nextShard;
+    private final Lock lock;
+    private final Condition nonEmpty;
+    private final AtomicInteger waiters;
+    private final boolean notified;
+    private int cursor;
+    private int headShard;
+
+    public ShardedQewQew(List<? extends PollableQewQew<byte[]>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required!");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.nextShard = new AtomicInteger();
+        this.lock = new ReentrantLock();
+        this.nonEmpty = this.lock.newCondition();
+        this.waiters = new AtomicInteger();
+        boolean notified = true;
+        for (PollableQewQew<byte[]> shard : this.shards) {
+            if (shard instanceof SimplePollableQewQew) {
+                ((SimplePollableQewQew<byte[]>) shard).setEnqueueListener(this::signalNonEmpty);
+            } else if (shard instanceof SpscPollableQewQew) {
+                ((SpscPollableQewQew) shard).setEnqueueListener(this::signalNonEmpty);
+            } else {
+                notified = false;
+            }
+        }
+        this.notified = notified;
+        this.cursor = 0;
+        this.headShard = -1;
+    }
+
+    public static ShardedQewQew from(List<Path> queuePaths, long chunkSize) throws IOException {
+        return from(queuePaths, chunkSize, QewOptions.DEFAULT);
+    }
+
+    /**
+     * Opens a {@link SimplePollableQewQew} per queue path as the shards.
+     *
+     * @param queuePaths the queue header path of each shard
+     * @param chunkSize the chunk size of all shards
+     * @param options the options of all shards
+     * @return the sharded queue
+     * @throws IOException if a shard could not be opened, shards that were already opened are closed again
+     */
+    public static ShardedQewQew from(List<Path> queuePaths, long chunkSize, QewOptions options) throws IOException {
+        List<PollableQewQew<byte[]>> shards = new ArrayList<>(queuePaths.size());
+        try {
+            for (Path queuePath : queuePaths) {
+                shards.add(new SimplePollableQewQew<>(new SimpleQewQew(queuePath, chunkSize, options)));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (PollableQewQew<byte[]> shard : shards) {
+                try {
+                    shard.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+        return new ShardedQewQew(shards);
+    }
+
+    public int countShards() {
+        return shards.size();
+    }
+
+    public PollableQewQew<byte[]> getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    public List<PollableQewQew<byte[]>> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the shard that elements of the given key are enqueued into.
+     */
+    public int shardOf(Object key) {
+        final int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shards.size());
+    }
+
+    private PollableQewQew<byte[]> nextShard() {
+        return shards.get(Math.floorMod(nextShard.getAndIncrement(), shards.size()));
+    }
+
+    /**
+     * Wakes up consumers of the merged view after an element has been enqueued into a shard. Producers only take the
+     * lock while a consumer is waiting, so producers of different shards do not contend on it.
+     */
+    private void signalNonEmpty() {
+        // a waiter that registered after this check sees the element before it waits
+        if (waiters.get() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            nonEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getChunkSize() {
+        return shards.get(0).getChunkSize();
+    }
+
+    @Override
+    public long getMaxElementSize() {
+        long max = Long.MAX_VALUE;
+        for (PollableQewQew<byte[]> shard : shards) {
+            max = Math.min(max, shard.getMaxElementSize());
+        }
+        return max;
+    }
+
+    @Override
+    public boolean poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!isEmpty()) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final long interval = TimeUnit.MILLISECONDS.toNanos(POLL_INTERVAL_MILLIS);
+        lock.lock();
+        waiters.incrementAndGet();
+        try {
+            // producers check for waiters after they have enqueued, so an element is either seen here or signalled
+            while (isEmpty()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                nonEmpty.awaitNanos(notified ? remaining : Math.min(remaining, interval));
+            }
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] peek(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        if (poll(timeout, unit)) {
+            return peek();
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] dequeue(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        byte[] elem = peek(timeout, unit);
+        if (elem != null) {
+            dequeue();
+        }
+        return elem;
+    }
+
+    @Override
+    public List<byte[]> poll(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        List<byte[]> elems = new ArrayList<>();
+        if (poll(timeout, unit)) {
+            drainTo(elems, max);
+        }
+        return elems;
+    }
+
+    @Override
+    public byte[] dequeueIf(long timeout, TimeUnit unit, DequeueCondition<byte[]> condition) throws IOException, InterruptedException, ExecutionException {
+        byte[] elem = peek(timeout, unit);
+        try {
+            if (elem != null && condition.test(elem)) {
+                dequeue();
+                return elem;
+            }
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public byte[] peek() throws IOException {
+        final int n = shards.size();
+        for (int i = 0; i < n; i++) {
+            final int shard = (cursor + i) % n;
+            final byte[] elem = shards.get(shard).peek();
+            if (elem != null) {
+                headShard = shard;
+                return elem;
+            }
+        }
+        headShard = -1;
+        return null;
+    }
+
+    /**
+     * Dequeues the element that has been returned by the last {@link #peek()} or, without a prior peek, the element of
+     * the next shard that is not empty, the next element is taken from the following shard.
+     */
+    @Override
+    public boolean dequeue() throws IOException {
+        int shard = headShard;
+        if (shard == -1) {
+            shard = nextNonEmptyShard();
+            if (shard == -1) {
+                return false;
+            }
+        }
+        headShard = -1;
+        cursor = (shard + 1) % shards.size();
+        return shards.get(shard).dequeue();
+    }
+
+    private int nextNonEmptyShard() {
+        final int n = shards.size();
+        for (int i = 0; i < n; i++) {
+            final int shard = (cursor + i) % n;
+            if (!shards.get(shard).isEmpty()) {
+                return shard;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drains elements from the shards in turn, one element per shard, until all shards are empty or max elements have
+     * been drained.
+     */
+    @Override
+    public int drainTo(Collection<? super byte[]> target, int max) throws IOException {
+        final int n = shards.size();
+        headShard = -1;
+        int count = 0;
+        int empty = 0;
+        while (count < max && empty < n) {
+            if (shards.get(cursor).drainTo(target, 1) == 0) {
+                empty++;
+            } else {
+                empty = 0;
+                count++;
+            }
+            cursor = (cursor + 1) % n;
+        }
+        return count;
+    }
+
+    /**
+     * Enqueues the element into the next shard in round-robin order.
+     */
+    @Override
+    public void enqueue(byte[] elem) throws IOException {
+        nextShard().enqueue(elem);
+    }
+
+    public void enqueue(Object key, byte[] elem) throws IOException {
+        shards.get(shardOf(key)).enqueue(elem);
+    }
+
+    /**
+     * Enqueues all elements into the next shard in round-robin order, so they are enqueued and forced as one batch.
+     */
+    @Override
+    public void enqueueAll(Iterable<? extends byte[]> elems) throws IOException {
+        nextShard().enqueueAll(elems);
+    }
+
+    public void enqueueAll(Object key, Iterable<? extends byte[]> elems) throws IOException {
+        shards.get(shardOf(key)).enqueueAll(elems);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (PollableQewQew<byte[]> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean clear() throws IOException {
+        headShard = -1;
+        boolean cleared = false;
+        for (PollableQewQew<byte[]> shard : shards) {
+            cleared |= shard.clear();
+        }
+        return cleared;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (PollableQewQew<byte[]> shard : shards) {
+            shard.sync();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (PollableQewQew<byte[]> shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -23,7 +23,11 @@
 package tel.schich.qewqew;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
@@ -32,9 +36,11 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class SimplePollableQewQew<E> implements PollableQewQew<E> {
 
-    private final QewQew<E> qew;
+    final QewQew<E> qew;
     private final Lock lock;
     private final Condition nonEmpty;
+    private final QewMetrics metrics;
+    private volatile Runnable enqueueListener;
 
     public SimplePollableQewQew(QewQew<E> qew) {
         this(qew, true);
@@ -44,12 +50,21 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
         this.qew = qew;
         this.lock = new ReentrantLock(fair);
         this.nonEmpty = this.lock.newCondition();
+        this.metrics = qew instanceof SimpleQewQew ? ((SimpleQewQew) qew).getMetrics() : QewMetrics.NONE;
     }
 
     public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize) throws IOException {
         return new SimplePollableQewQew<>(new SimpleQewQew(queuePath, chunkSize));
     }
 
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize, DurabilityMode durability) throws IOException {
+        return new SimplePollableQewQew<>(new SimpleQewQew(queuePath, chunkSize, durability));
+    }
+
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize, QewOptions options) throws IOException {
+        return new SimplePollableQewQew<>(new SimpleQewQew(queuePath, chunkSize, options));
+    }
+
     @Override
     public long getChunkSize() {
         return qew.getChunkSize();
@@ -64,16 +79,33 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
     public boolean poll(long timeout, TimeUnit unit) throws InterruptedException {
         lock.lock();
         try {
-            long timeoutNanos = unit.toNanos(timeout);
-            while (qew.isEmpty() && timeoutNanos > 0) {
-                timeoutNanos = nonEmpty.awaitNanos(timeoutNanos);
-            }
-            return !qew.isEmpty();
+            boolean available = awaitNonEmpty(timeout, unit);
+            // the element is left in the queue, so the signal is passed on to a waiter that might consume it
+            signalNext();
+            return available;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Waits until the queue is not empty or the timeout has elapsed. Must be called while holding the lock.
+     */
+    private boolean awaitNonEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long timeoutNanos = unit.toNanos(timeout);
+        if (qew.isEmpty() && timeoutNanos > 0) {
+            metrics.waiterBlocked();
+            try {
+                while (qew.isEmpty() && timeoutNanos > 0) {
+                    timeoutNanos = nonEmpty.awaitNanos(timeoutNanos);
+                }
+            } finally {
+                metrics.waiterResumed();
+            }
+        }
+        return !qew.isEmpty();
+    }
+
     @Override
     public E peek() throws IOException {
         lock.lock();
@@ -88,8 +120,10 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
     public E peek(long timeout, TimeUnit unit) throws IOException, InterruptedException {
         lock.lock();
         try {
-            if (poll(timeout, unit)) {
-                return qew.peek();
+            if (awaitNonEmpty(timeout, unit)) {
+                E elem = qew.peek();
+                signalNext();
+                return elem;
             }
             return null;
         } finally {
@@ -101,11 +135,12 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
     public boolean dequeue() throws IOException {
         lock.lock();
         try {
-            qew.dequeue();
+            boolean dequeued = qew.dequeue();
+            signalNext();
+            return dequeued;
         } finally {
             lock.unlock();
         }
-        return false;
     }
 
     @Override
@@ -117,7 +152,59 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
         } finally {
             lock.unlock();
         }
+        notifyListener();
+    }
 
+    @Override
+    public void enqueueAll(Iterable<? extends E> elems) throws IOException {
+        lock.lock();
+        try {
+            qew.enqueueAll(elems);
+            // consumers pass the signal on while elements are left, see signalNext()
+            nonEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        notifyListener();
+    }
+
+    /**
+     * Wakes up the next waiting consumer if elements are left after a consumer has dequeued or returned without
+     * dequeuing, like a peeking consumer or a rejecting {@link #dequeueIf}. Waking a single consumer
+     * per enqueue and letting consumers pass the signal on avoids waking all waiting consumers at once, which matters
+     * with thousands of consumers on virtual threads. Must be called while holding the lock.
+     */
+    private void signalNext() {
+        if (!qew.isEmpty()) {
+            nonEmpty.signal();
+        }
+    }
+
+    /**
+     * Sets the listener that is called by producers after they have enqueued elements, it must not block.
+     */
+    void setEnqueueListener(Runnable listener) {
+        this.enqueueListener = listener;
+    }
+
+    private void notifyListener() {
+        Runnable listener = enqueueListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Consumes elements like {@link SimpleQewQew#consumeAll(ElementHandler, int)} while holding the lock, the queue
+     * has to be a {@link SimpleQewQew}.
+     */
+    int consumeAll(ElementHandler<ByteBuffer> handler, int max) throws IOException, ExecutionException {
+        lock.lock();
+        try {
+            return ((SimpleQewQew) qew).consumeAll(handler, max);
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -125,10 +212,11 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
         lock.lock();
         try {
             E elem = null;
-            if (poll(timeout, unit)) {
+            if (awaitNonEmpty(timeout, unit)) {
                 elem = qew.peek();
                 if (elem != null) {
                     qew.dequeue();
+                    signalNext();
                 }
             }
             return elem;
@@ -137,11 +225,41 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
         }
     }
 
+    @Override
+    public int drainTo(Collection<? super E> target, int max) throws IOException {
+        lock.lock();
+        try {
+            int count = qew.drainTo(target, max);
+            signalNext();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<E> poll(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            List<E> elems = new ArrayList<>();
+            if (awaitNonEmpty(timeout, unit)) {
+                qew.drainTo(elems, max);
+                signalNext();
+            }
+            return elems;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public E dequeueIf(long timeout, TimeUnit unit, DequeueCondition<E> condition) throws IOException, InterruptedException, ExecutionException {
         lock.lock();
         try {
-            E elem = peek(timeout, unit);
+            if (!awaitNonEmpty(timeout, unit)) {
+                return null;
+            }
+            E elem = qew.peek();
             try {
                 if (elem != null && condition.test(elem)) {
                     qew.dequeue();
@@ -149,6 +267,9 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
                 }
             } catch (Exception e) {
                 throw new ExecutionException(e);
+            } finally {
+                // whether the element was dequeued or rejected, the next waiter might consume what is left
+                signalNext();
             }
         } finally {
             lock.unlock();
@@ -170,11 +291,20 @@ public class SimplePollableQewQew<E> implements PollableQewQew<E> {
     public boolean clear() throws IOException {
         lock.lock();
         try {
-            qew.clear();
+            return qew.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            qew.sync();
         } finally {
             lock.unlock();
         }
-        return false;
     }
 
     @Override
@@ -23,6 +23,8 @@
 package tel.schich.qewqew;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -32,9 +34,18 @@ import java.nio.channels.OverlappingFileLockException;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.DSYNC;
@@ -42,47 +53,170 @@ import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * queue   := chunk*
- * chunk   := headPtr tailPtr nextRef entry*
- * entry   := length data
- * headPtr := ptr
- * tailPtr := ptr
- * nextRef := '16 bit unsigned integer'
- * ptr     := '32 bit unsigned integer'
- * length  := '16 bit unsigned integer'
- * data    := 'arbitrary many bytes'
+ * A queue of byte arrays in a chain of memory mapped chunk files. The format of version 2, as written by new queues,
+ * is outlined below. Version 1 lacks the magic, version and flags and uses 16 bit refs and lengths without flags.
+ * The complete format is described in the README.
+ *
+ * <pre>
+ * header   := magic version flags firstRef
+ * magic    := 0x51455751
+ * version  := '16 bit unsigned integer'
+ * flags    := '16 bit unsigned integer' (bit 0: checksums, bit 1: compression)
+ * chunk    := headPtr tailPtr nextRef headIndex? entry*  (headIndex with compression)
+ * entry    := checksum? length data                      (checksum with checksums)
+ * headPtr  := ptr
+ * tailPtr  := ptr
+ * firstRef := ref
+ * nextRef  := ref
+ * headIndex := '32 bit signed integer'
+ * ref      := '64 bit signed integer'
+ * ptr      := '32 bit signed integer'
+ * checksum := 'CRC32C of length and data'
+ * length   := '28 bit length, 4 bit flags (continued, continuation, batch)'
+ * data     := 'up to 2^28-1 bytes'
+ * </pre>
  */
 public class SimpleQewQew implements QewQew<byte[]> {
-    static final int REF_SIZE = Short.BYTES;
     static final int PTR_SIZE = Integer.BYTES;
-    static final int QUEUE_HEAD_SIZE = REF_SIZE;
     static final int CHUNK_HEADER_OFFSET = 0;
-    static final int CHUNK_HEADER_SIZE = PTR_SIZE + PTR_SIZE + REF_SIZE;
     static final int CHUNK_HEAD_PTR_OFFSET = CHUNK_HEADER_OFFSET;
     static final int CHUNK_TAIL_PTR_OFFSET = CHUNK_HEAD_PTR_OFFSET + PTR_SIZE;
     static final int CHUNK_NEXT_REF_OFFSET = CHUNK_TAIL_PTR_OFFSET + PTR_SIZE;
-    static final int ENTRY_HEADER_SIZE = Short.BYTES;
 
     static final int NULL_REF = 0;
-    private static final int MAX_ID = ((short)-1) & 0xFFFF;
     private static final long MAX_CHUNK_SIZE = 0xFFFFFFFFL;
+    // the largest array most VMs can allocate
+    private static final int MAX_SPANNING_ELEMENT_SIZE = Integer.MAX_VALUE - 8;
 
     private final Head head;
     private final Deque<Chunk> chunks;
     private int cachedHeadSize;
+    private Chunk verifiedChunk;
+    private int verifiedHeadPtr;
+    private Batch headBatch;
+    private Batch.Writer batchWriter;
+    private GroupCommitter committer;
+    private Chunk claimedChunk;
+    private int claimedLength;
 
     private final long chunkSize;
+    private final DurabilityMode durability;
+    private final QewFormat format;
+    private final QewCompression compression;
+    private final ChunkPool pool;
+    private final ChunkAllocator allocator;
+    private final AtomicLong pendingOperations;
+    private volatile long pendingSince;
+    private boolean shared;
+    private boolean spanning;
+    private final Lock rolloverLock;
+    private final QewMetrics metrics;
+    private final boolean metered;
+    private final int maxOpenChunks;
 
     public SimpleQewQew(Path queuePath, long chunkSize) throws IOException {
+        this(queuePath, chunkSize, QewOptions.DEFAULT);
+    }
+
+    public SimpleQewQew(Path queuePath, long chunkSize, DurabilityMode durability) throws IOException {
+        this(queuePath, chunkSize, QewOptions.DEFAULT.withDurability(durability));
+    }
+
+    public SimpleQewQew(Path queuePath, long chunkSize, QewOptions options) throws IOException {
         if (chunkSize > MAX_CHUNK_SIZE) {
             throw new IllegalArgumentException("chunkSize must fit into 32 bits!");
         }
 
-        this.head = openQueue(queuePath);
-        this.chunks = loadChunks(this.head, chunkSize);
-        this.cachedHeadSize = -1;
-
         this.chunkSize = chunkSize;
+        this.durability = options.getDurability();
+        this.pendingOperations = new AtomicLong(0);
+        this.shared = false;
+        this.rolloverLock = new ReentrantLock();
+        this.maxOpenChunks = options.getMaxOpenChunks();
+
+        int formatFlags = 0;
+        if (options.isChecksums()) {
+            formatFlags |= QewFormat.HEAD_FLAG_CHECKSUMS;
+        }
+        if (options.getCompression() != null) {
+            formatFlags |= QewFormat.HEAD_FLAG_COMPRESSION;
+        }
+        this.head = openQueue(queuePath, durability, QewFormat.current(formatFlags));
+        try {
+            this.format = head.format;
+            this.compression = options.getCompression();
+            this.spanning = options.isElementSpanning() && format.supportsEntryFlags();
+            this.pool = new ChunkPool(this.head.path, options.getSpareChunks());
+            this.chunks = loadChunks();
+            this.cachedHeadSize = -1;
+            this.metrics = options.getMetrics().create(this.head.path);
+            this.metered = this.metrics != QewMetrics.NONE;
+
+            if (!this.chunks.isEmpty()) {
+                // left over from an element that had not been completely enqueued
+                if (skipContinuations(this.chunks.getFirst())) {
+                    dropHeadChunk();
+                }
+            }
+
+            if (options.getChunkAllocator() != null) {
+                this.allocator = new ChunkAllocator(options.getChunkAllocator());
+                if (!this.chunks.isEmpty()) {
+                    prepareNextChunk(this.chunks.getLast());
+                }
+            } else {
+                this.allocator = null;
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAfterFailedOpen(e);
+            throw e;
+        }
+
+        if (metered) {
+            long elements = 0;
+            long bytes = 0;
+            for (Chunk chunk : chunks) {
+                // lazily loaded chunks are counted once they are opened
+                if (!chunk.lazy) {
+                    elements += chunk.countElements();
+                    bytes += chunk.countDataBytes();
+                }
+            }
+            metrics.opened(elements, bytes);
+        }
+    }
+
+    /**
+     * Releases whatever the constructor has opened before it failed, fields that have not been assigned yet are null.
+     */
+    private void closeAfterFailedOpen(Exception e) {
+        if (allocator != null) {
+            try {
+                Chunk prepared = allocator.cancel();
+                if (prepared != null) {
+                    dropChunk(prepared);
+                }
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+        if (chunks != null) {
+            for (Chunk chunk : chunks) {
+                try {
+                    chunk.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+        }
+        try {
+            head.close();
+        } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
     }
 
     public int countChunks() {
@@ -93,6 +227,20 @@ public class SimpleQewQew implements QewQew<byte[]> {
         }
     }
 
+    int countOpenChunks() {
+        int count = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.isOpen()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int countSpareChunks() {
+        return this.pool.size();
+    }
+
     @Override
     public long getChunkSize() {
         return chunkSize;
@@ -100,12 +248,36 @@ public class SimpleQewQew implements QewQew<byte[]> {
 
     @Override
     public long getMaxElementSize() {
-        return getChunkSize() - CHUNK_HEADER_SIZE - ENTRY_HEADER_SIZE;
+        if (spanning) {
+            return MAX_SPANNING_ELEMENT_SIZE;
+        }
+        return getMaxContiguousElementSize();
+    }
+
+    long getMaxContiguousElementSize() {
+        return Math.min(getChunkSize() - format.chunkHeaderSize - format.entryHeaderSize, format.maxEntryLength);
+    }
+
+    /**
+     * Returns the on-disk format version of this queue.
+     *
+     * @return the format version
+     */
+    public int getFormatVersion() {
+        return format.version;
+    }
+
+    public DurabilityMode getDurability() {
+        return durability;
     }
 
-    private static Head openQueue(Path path) throws IOException {
+    QewMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static Head openQueue(Path path, DurabilityMode durability, QewFormat desiredFormat) throws IOException {
         final Path absPath = path.toAbsolutePath();
-        final FileChannel file = openFile(absPath);
+        final FileChannel file = openFile(absPath, durability);
         final FileLock lock;
         try {
             lock = file.tryLock();
@@ -115,121 +287,811 @@ public class SimpleQewQew implements QewQew<byte[]> {
         if (lock == null) {
             throw new QewAlreadyOpenException();
         }
-        file.truncate(QUEUE_HEAD_SIZE);
-        final MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 0, QUEUE_HEAD_SIZE);
-        int next = getUShort(map, 0);
-        return new Head(absPath, file, lock, map, next);
+        try {
+            final QewFormat format = readFormat(file);
+            final MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 0, format.headSize);
+            long first = format.getRef(map, format.firstRefOffset);
+            if (first == NULL_REF && format != desiredFormat) {
+                // nothing to migrate in an empty queue
+                return createQueue(absPath, file, lock, desiredFormat);
+            }
+            return new Head(absPath, file, lock, map, format, first);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
     }
 
-    private static Deque<Chunk> loadChunks(Head head, long chunkSize) throws IOException {
+    private static Head createQueue(Path path, FileChannel file, FileLock lock, QewFormat format) throws IOException {
+        // the header only grows with newer versions, so it is overwritten in place
+        final MappedByteBuffer map = file.map(FileChannel.MapMode.READ_WRITE, 0, format.headSize);
+        format.writePreamble(map);
+        format.putRef(map, format.firstRefOffset, NULL_REF);
+        map.force();
+        return new Head(path, file, lock, map, format, NULL_REF);
+    }
 
-        int next = head.first;
-        Deque<Chunk> chunks = new ArrayDeque<>();
+    /**
+     * Determines the format of an existing queue header file, a header file that is exactly as large as a first
+     * chunk ref is from version 1. Empty header files are treated as empty version 1 queues.
+     */
+    private static QewFormat readFormat(FileChannel file) throws IOException {
+        final long size = file.size();
+        if (size == 0 || size == QewFormat.V1.headSize) {
+            return QewFormat.V1;
+        }
+        if (size < QewFormat.PREAMBLE_SIZE) {
+            throw new QewFormatException("Queue header is too short: " + size + " bytes");
+        }
+        final MappedByteBuffer preamble = file.map(FileChannel.MapMode.READ_ONLY, 0, QewFormat.PREAMBLE_SIZE);
+        if (preamble.getInt(QewFormat.MAGIC_OFFSET) != QewFormat.MAGIC) {
+            throw new QewFormatException("Queue header has an unknown format!");
+        }
+        final int version = getUShort(preamble, QewFormat.VERSION_OFFSET);
+        final QewFormat format = QewFormat.forVersion(version, getUShort(preamble, QewFormat.FLAGS_OFFSET));
+        if (size < format.headSize) {
+            throw new QewFormatException("Queue header is too short: " + size + " bytes");
+        }
+        return format;
+    }
 
-        while (next != NULL_REF) {
-            Chunk chunk = openChunk(head, next, false, chunkSize);
-            chunks.addLast(chunk);
-            next = chunk.next;
+    /**
+     * Loads the chain of chunks from their headers, only the head and the tail chunk are opened and mapped. The chunks
+     * in between are opened once the consumer reaches them.
+     */
+    private Deque<Chunk> loadChunks() throws IOException {
+
+        long next = head.first;
+        Deque<Chunk> chunks = new ConcurrentLinkedDeque<>();
+
+        try {
+            while (next != NULL_REF) {
+                Chunk chunk = new Chunk(resolveNextRef(head, next), next, chunkSize, durability, format).load();
+                chunks.addLast(chunk);
+                next = chunk.next;
+            }
+            if (!chunks.isEmpty()) {
+                chunks.getFirst().open();
+                chunks.getLast().open();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Chunk chunk : chunks) {
+                try {
+                    chunk.close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
         }
 
         return chunks;
     }
 
-    private static Chunk openChunk(Head head, int id, boolean forceNew, long chunkSize) throws IOException {
+    private Chunk openChunk(long id, boolean forceNew) throws IOException {
         final Path path = resolveNextRef(head, id);
-        return new Chunk(path, id, chunkSize).init(forceNew);
+        if (forceNew) {
+            pool.take(path);
+        }
+        return new Chunk(path, id, chunkSize, durability, format).init(forceNew);
+    }
+
+    /**
+     * Creates the chunk following the given tail chunk, preferably by taking the chunk the allocator prepared.
+     */
+    private Chunk openNextChunk(Chunk tail) throws IOException {
+        final long nextId = format.nextId(tail.id);
+        Chunk next = null;
+        if (allocator != null) {
+            next = allocator.take(nextId);
+        }
+        if (next == null) {
+            next = openChunk(nextId, true);
+        }
+        prepareNextChunk(next);
+        return next;
     }
 
-    static FileChannel openFile(Path path) throws IOException {
-        return FileChannel.open(path, CREATE, WRITE, READ, DSYNC);
+    private void prepareNextChunk(Chunk tail) throws IOException {
+        if (allocator == null) {
+            return;
+        }
+        final long nextId = format.nextId(tail.id);
+        if (allocator.isPreparing(nextId)) {
+            return;
+        }
+        Chunk stale = allocator.cancel();
+        if (stale != null) {
+            dropChunk(stale);
+        }
+        final Path path = resolveNextRef(head, nextId);
+        allocator.prepare(nextId, () -> {
+            // the spare is only taken once the preparation runs, so a rejected preparation does not lose it
+            final boolean spare = pool.take(path);
+            Chunk chunk = new Chunk(path, nextId, chunkSize, durability, format);
+            try {
+                chunk.init(true);
+                chunk.prefault();
+                return chunk;
+            } catch (IOException | RuntimeException e) {
+                chunk.close();
+                if (spare) {
+                    // the writer takes another spare onto the same path
+                    try {
+                        pool.restore(path);
+                    } catch (IOException suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                }
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Removes a depleted chunk from disk by either recycling or deleting its file.
+     */
+    private void dropChunk(Chunk chunk) throws IOException {
+        if (!pool.recycle(chunk)) {
+            chunk.drop();
+        }
     }
 
-    private static Path resolveNextRef(Head head, int id) {
+    static FileChannel openFile(Path path, DurabilityMode durability) throws IOException {
+        if (durability.isSynchronous()) {
+            return FileChannel.open(path, CREATE, WRITE, READ, DSYNC);
+        }
+        return FileChannel.open(path, CREATE, WRITE, READ);
+    }
+
+    private static Path resolveNextRef(Head head, long id) {
         Path parent = head.path.getParent();
         String name = head.path.getFileName().toString();
-        return parent.resolve(name + "." + (id % MAX_ID));
+        return parent.resolve(name + "." + id);
     }
 
     public boolean isEmpty() {
-        if (chunks.isEmpty()) {
+        return readableChunk() == null;
+    }
+
+    /**
+     * Returns the first chunk that has elements left or null if the queue is empty. With checksums, corrupted entries
+     * at the head are skipped in memory, the skip is persisted with the next dequeue. A batch record at the head is
+     * decompressed here.
+     */
+    private Chunk readableChunk() {
+        Chunk chunk = opened(nonEmptyChunk());
+        if (format.checksums || format.compression) {
+            while (chunk != null && !isHeadReadable(chunk)) {
+                chunk = opened(nonEmptyChunk());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Opens a chunk for the consumer that has been closed after a rollover or has not been opened at all since the
+     * queue has been opened, the elements of the latter are reported to the metrics now. The chunk is marked as visited
+     * under the rollover lock, so a producer that closes idle chunks does not close it while the consumer reads it.
+     */
+    private void open(Chunk chunk) throws IOException {
+        if (chunk.visited && chunk.isOpen()) {
+            return;
+        }
+        rolloverLock.lock();
+        try {
+            chunk.visited = true;
+            if (chunk.isOpen()) {
+                return;
+            }
+            final boolean lazy = chunk.lazy;
+            chunk.open();
+            if (lazy && metered) {
+                metrics.loaded(chunk.countElements(), chunk.countDataBytes());
+            }
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    private Chunk opened(Chunk chunk) {
+        if (chunk != null && !(chunk.visited && chunk.isOpen())) {
+            try {
+                open(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Verifies the head entry of the given chunk including the continuation fragments of a spanning element and skips
+     * it if it is corrupted. The result and the decompressed batch are remembered until the head entry moves, so every
+     * entry is only verified and decompressed once.
+     */
+    private boolean isHeadReadable(Chunk chunk) {
+        if (chunk == verifiedChunk && chunk.headPtr == verifiedHeadPtr) {
             return true;
         }
-        if (chunks.size() == 1) {
-            Chunk c = chunks.getFirst();
-            return c.headPtr >= c.tailPtr;
+        headBatch = null;
+        boolean valid = chunk.verifyAt(chunk.headPtr);
+        if (valid && (chunk.headFlags() & QewFormat.ENTRY_FLAG_CONTINUATION) != 0) {
+            // the remains of a corrupted spanning element
+            chunk.headPtr = chunk.headPtr + format.entryHeaderSize + chunk.peekLength();
+            cachedHeadSize = -1;
+            return false;
+        }
+        if (valid && isSpanning(chunk)) {
+            valid = allContinuations(chunk, continuation -> continuation.verifyAt(format.chunkHeaderSize));
+        }
+        if (valid && format.compression && (chunk.headFlags() & QewFormat.ENTRY_FLAG_BATCH) != 0) {
+            try {
+                headBatch = Batch.decode(chunk.viewAt(chunk.headPtr), compression);
+                valid = chunk.headIndex < headBatch.count;
+            } catch (QewFormatException e) {
+                throw new UncheckedIOException(e);
+            } catch (IOException e) {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            headBatch = null;
+            chunk.skipCorruptedHead();
+            cachedHeadSize = -1;
+            metrics.corruptedEntry();
+            return false;
+        }
+        verifiedChunk = chunk;
+        verifiedHeadPtr = chunk.headPtr;
+        return true;
+    }
+
+    /**
+     * Returns the first chunk that has entries left or null if the queue is empty. Depleted chunks in front of it
+     * are skipped, they are only left at the head of the queue while another thread is producing. The next ref has to
+     * be read before the tail pointer, as the tail pointer is final once the next ref has been written.
+     */
+    private Chunk nonEmptyChunk() {
+        Chunk first = chunks.peekFirst();
+        if (first == null) {
+            return null;
+        }
+        long next = first.next;
+        if (first.headPtr < first.tailPtr) {
+            return first;
         }
+        if (next == NULL_REF) {
+            return null;
+        }
+        for (Chunk chunk : chunks) {
+            next = chunk.next;
+            if (chunk.headPtr < chunk.tailPtr) {
+                return chunk;
+            }
+            if (next == NULL_REF) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the first chunk that has elements left after removing depleted chunks in front of it or null if the
+     * queue is empty.
+     */
+    private Chunk headChunk() throws IOException {
+        Chunk chunk = readableChunk();
+        if (chunk != null) {
+            while (chunks.peekFirst() != chunk) {
+                dropHeadChunk();
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Drops the depleted head chunk and the chunks after it that only hold continuation fragments of the element that
+     * has just been dequeued, one after another, as an element might span thousands of chunks. The new first ref is
+     * forced before the depleted chunks are deleted or recycled, so the head never refers to a missing chunk after a
+     * crash, regardless of the {@link DurabilityMode}.
+     */
+    private void dropHeadChunk() throws IOException {
+        final List<Chunk> depleted = new ArrayList<>();
+        Chunk first;
+        do {
+            Chunk chunk = chunks.removeFirst();
+            // closed right away, so thousands of depleted continuation chunks are not kept open
+            chunk.discard();
+            depleted.add(chunk);
+            first = chunks.getFirst();
+            open(first); // open next chunk
+        } while (skipContinuations(first));
+        head.first = first.id;
+        writeQueueFirst(head);
+        head.sync();
+        for (Chunk chunk : depleted) {
+            dropChunk(chunk);
+            metrics.chunkDropped();
+        }
+        closeIdleChunks();
+    }
+
+    /**
+     * Closes chunks between the head and the tail while more than {@link QewOptions#withMaxOpenChunks(int)} chunks are
+     * open. The chunks farthest from the head are closed first, as they are read last. This is called by the consumer
+     * when it moves on to the next chunk, the chunks in front of the first non-empty chunk are kept open as the
+     * consumer might still read them and the two most recent chunks as a producer might still write to them.
+     */
+    private void closeIdleChunks() throws IOException {
+        if (maxOpenChunks == 0) {
+            return;
+        }
+        final Chunk readable = nonEmptyChunk();
+        rolloverLock.lock();
+        try {
+            closeIdleChunks(readable, false);
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    /**
+     * Closes idle chunks like {@link #closeIdleChunks()} for the producer of a shared queue after a rollover, as the
+     * consumer only closes chunks when it moves on to the next chunk. The producer does not know which chunk the
+     * consumer reads, so it keeps the chunks the consumer has visited open instead.
+     */
+    private void closeIdleChunksAfterRollover() throws IOException {
+        if (maxOpenChunks == 0) {
+            return;
+        }
+        rolloverLock.lock();
+        try {
+            closeIdleChunks(null, true);
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    private void closeIdleChunks(Chunk readable, boolean keepVisited) throws IOException {
+        int open = countOpenChunks();
+        if (open <= maxOpenChunks) {
+            return;
+        }
+        final Iterator<Chunk> it = chunks.descendingIterator();
+        for (int recent = 0; recent < 2 && it.hasNext(); recent++) {
+            if (it.next() == readable) {
+                return;
+            }
+        }
+        while (open > maxOpenChunks && it.hasNext()) {
+            final Chunk chunk = it.next();
+            if (chunk == readable || chunk == chunks.peekFirst() || (keepVisited && chunk.visited)) {
+                return;
+            }
+            if (chunk.isOpen()) {
+                chunk.close();
+                open--;
+            }
+        }
+    }
+
+    /**
+     * Skips continuation fragments at the head of a chunk that just became the head chunk. They either belong to the
+     * element that has just been dequeued or are left over from an element that has not been completely enqueued
+     * before a crash.
+     *
+     * @return true if the chunk only held continuation fragments and has to be dropped as well
+     */
+    private boolean skipContinuations(Chunk chunk) throws IOException {
+        boolean skipped = false;
+        while (chunk.headPtr < chunk.tailPtr && (chunk.headFlags() & QewFormat.ENTRY_FLAG_CONTINUATION) != 0) {
+            chunk.headPtr = chunk.headPtr + format.entryHeaderSize + chunk.peekLength();
+            skipped = true;
+        }
+        if (!skipped) {
+            return false;
+        }
+        if (chunk.headPtr >= chunk.tailPtr && chunk.next != NULL_REF) {
+            return true;
+        }
+        writeHeadPtr(chunk);
         return false;
     }
 
+    /**
+     * Allows one thread to enqueue while another thread dequeues. Depleted chunks are not reset by the consumer
+     * anymore and chunks are only closed once they are dropped, as the consumer might be reading them.
+     * All other operations still require external synchronization.
+     */
+    void shareBetweenThreads() {
+        this.shared = true;
+        this.spanning = false;
+        for (Chunk chunk : chunks) {
+            chunk.resetReservations();
+        }
+    }
+
     public boolean clear() throws IOException {
         if (isEmpty()) {
             return false;
         }
-        head.first = NULL_REF;
-        writeQueueFirst(head);
+        cachedHeadSize = -1;
+        claimedChunk = null;
         Iterator<Chunk> it = chunks.iterator();
         Chunk first = it.next();
         resetChunk(first);
+        // the first chunk is kept for further elements
+        head.first = first.id;
+        writeQueueFirst(head);
+        // neither the head nor the reset first chunk may refer to a recycled or deleted chunk after a crash
+        first.sync();
+        head.sync();
         while (it.hasNext()) {
-            it.next().drop();
+            dropChunk(it.next());
             it.remove();
+            metrics.chunkDropped();
         }
+        committed(1);
+        metrics.cleared();
         return true;
     }
 
     public int peekLength() {
-        return peekLength(chunks.getFirst());
+        return peekLength(readableChunk());
     }
 
     public void peek(byte[] output) {
-        Chunk head = chunks.getFirst();
-        head.peek(output);
+        Chunk head = readableChunk();
+        Batch batch = batchOf(head);
+        if (batch != null) {
+            batch.read(head.headIndex, output);
+        } else if (isSpanning(head)) {
+            readSpanning(head, output);
+        } else {
+            head.peek(output);
+        }
     }
 
     public byte[] peek() {
-        if (isEmpty()) {
+        Chunk head = readableChunk();
+        if (head == null) {
             return null;
         }
 
-        Chunk head = chunks.getFirst();
         byte[] output = new byte[peekLength(head)];
+        Batch batch = batchOf(head);
+        if (batch != null) {
+            return batch.read(head.headIndex, output);
+        }
+        if (isSpanning(head)) {
+            return readSpanning(head, output);
+        }
         return head.peek(output);
     }
 
-    public boolean dequeue() throws IOException {
+    /**
+     * Returns a stream of the head element, which reads the element straight from the mapped chunks. This allows
+     * elements spanning multiple chunks to be read without copying them as a whole. The stream must not be used after
+     * the queue has been modified.
+     *
+     * @return the stream of the head element or null if the queue is empty
+     */
+    public InputStream peekStream() {
+        Chunk head = readableChunk();
+        if (head == null) {
+            return null;
+        }
+        List<ByteBuffer> fragments = new ArrayList<>();
+        Batch batch = batchOf(head);
+        if (batch != null) {
+            fragments.add(batch.view(head.headIndex));
+            return new ByteBufferInputStream(fragments);
+        }
+        fragments.add(head.viewAt(head.headPtr));
+        if (isSpanning(head)) {
+            // the mappings stay valid after the chunks have been closed
+            allContinuations(head, chunk -> fragments.add(chunk.viewAt(format.chunkHeaderSize)));
+        }
+        return new ByteBufferInputStream(fragments);
+    }
 
-        if (isEmpty()) {
+    /**
+     * Returns the decompressed batch record at the head of the given readable chunk or null if the head entry is not
+     * a batch record.
+     */
+    private Batch batchOf(Chunk head) {
+        if (headBatch != null && head == verifiedChunk && head.headPtr == verifiedHeadPtr) {
+            return headBatch;
+        }
+        return null;
+    }
+
+    private static boolean isSpanning(Chunk head) {
+        return (head.headFlags() & QewFormat.ENTRY_FLAG_CONTINUED) != 0;
+    }
+
+    /**
+     * Passes the chunks that hold the continuation fragments of the spanning head element in the given chunk to the
+     * given test one after another, until the test fails. Each chunk is only open while it is tested, so an element
+     * spanning thousands of chunks does not exhaust the file descriptors.
+     *
+     * @return true if all continuation chunks passed the test
+     */
+    private boolean allContinuations(Chunk head, Predicate<Chunk> test) {
+        Iterator<Chunk> it = chunks.iterator();
+        while (it.next() != head) {
+            // skip to the head
+        }
+        while (it.hasNext()) {
+            // continuation chunks might have been closed after the rollover or not opened yet
+            Chunk chunk = opened(it.next());
+            final boolean continued;
+            try {
+                if (!test.test(chunk)) {
+                    return false;
+                }
+                continued = (chunk.flagsAt(format.chunkHeaderSize) & QewFormat.ENTRY_FLAG_CONTINUED) != 0;
+            } finally {
+                closeContinuation(chunk);
+            }
+            if (!continued) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes a chunk after a continuation fragment has been read from it, unless it is the tail chunk.
+     */
+    private void closeContinuation(Chunk chunk) {
+        if (chunk == chunks.peekLast()) {
+            return;
+        }
+        rolloverLock.lock();
+        try {
+            chunk.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    private int spanningLength(Chunk head) {
+        final long[] length = {head.peekLength()};
+        allContinuations(head, chunk -> {
+            length[0] += chunk.lengthAt(format.chunkHeaderSize);
+            return true;
+        });
+        return (int) length[0];
+    }
+
+    private byte[] readSpanning(Chunk head, byte[] output) {
+        final int[] offset = {head.readAt(head.headPtr, output, 0)};
+        allContinuations(head, chunk -> {
+            offset[0] += chunk.readAt(format.chunkHeaderSize, output, offset[0]);
+            return true;
+        });
+        return output;
+    }
+
+    /**
+     * Passes the head element to the given handler and dequeues it if the handler completes normally.
+     * The handler receives a read-only view of the mapped chunk instead of a copy, the view must not be used after
+     * the handler returned.
+     *
+     * @param handler the handler to pass the head element to
+     * @return true if an element has been consumed, false if the queue is empty
+     * @throws IOException if the element could not be dequeued
+     * @throws ExecutionException if the handler failed, the element remains in the queue in this case
+     */
+    public boolean consume(ElementHandler<ByteBuffer> handler) throws IOException, ExecutionException {
+        Chunk chunk = readableChunk();
+        if (chunk == null) {
+            return false;
+        }
+
+        try {
+            handler.handle(headView(chunk));
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+        return dequeue();
+    }
+
+    /**
+     * Passes up to max elements to the given handler like {@link #consume(ElementHandler)} does, but dequeues them as
+     * a batch like {@link #drainTo(Collection, int)} does. If the handler fails, the elements before the failed one
+     * are still dequeued.
+     *
+     * @param handler the handler to pass the elements to
+     * @param max the maximum number of elements to consume
+     * @return the number of consumed elements
+     * @throws IOException if a depleted chunk could not be removed
+     * @throws ExecutionException if the handler failed, the element remains in the queue in this case
+     */
+    public int consumeAll(ElementHandler<ByteBuffer> handler, int max) throws IOException, ExecutionException {
+        final long start = startTime();
+        int count = 0;
+        long bytes = 0;
+        try {
+            Chunk chunk;
+            while (count < max && (chunk = headChunk()) != null) {
+                cachedHeadSize = -1;
+                try {
+                    while (count < max && readableChunk() == chunk) {
+                        ByteBuffer view = headView(chunk);
+                        int length = view.remaining();
+                        try {
+                            handler.handle(view);
+                        } catch (Exception e) {
+                            throw new ExecutionException(e);
+                        }
+                        advanceHead(chunk);
+                        cachedHeadSize = -1;
+                        count++;
+                        bytes += length;
+                    }
+                } finally {
+                    writeHeadPtr(chunk);
+                }
+            }
+        } finally {
+            if (count > 0) {
+                committed(count);
+                dequeued(count, bytes, start);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a read-only view of the head element or null if the queue is empty. Elements spanning multiple chunks
+     * are copied.
+     */
+    ByteBuffer peekView() {
+        Chunk chunk = readableChunk();
+        if (chunk == null) {
+            return null;
+        }
+        return headView(chunk);
+    }
+
+    private ByteBuffer headView(Chunk chunk) {
+        Batch batch = batchOf(chunk);
+        if (batch != null) {
+            return batch.view(chunk.headIndex);
+        } else if (isSpanning(chunk)) {
+            return ByteBuffer.wrap(readSpanning(chunk, new byte[peekLength(chunk)])).asReadOnlyBuffer();
+        }
+        return chunk.view(peekLength(chunk));
+    }
+
+    public boolean dequeue() throws IOException {
+        final long start = startTime();
+        Chunk chunk = headChunk();
+        if (chunk == null) {
             return false;
         }
 
-        Chunk chunk = chunks.getFirst();
         int length = peekLength(chunk);
         cachedHeadSize = -1;
-        chunk.headPtr = chunk.headPtr + ENTRY_HEADER_SIZE + length;
+        advanceHead(chunk);
+        writeHeadPtr(chunk);
+        committed(1);
+        dequeued(1, length, start);
 
-        if (chunk.headPtr >= chunk.tailPtr) {
-            if (chunks.size() == 1) {
-                Chunk onlyRemaining = chunks.getFirst();
-                resetChunk(onlyRemaining);
-                chunk.force();
-            } else {
-                Chunk depleted = chunks.removeFirst();
-                depleted.drop();
-                head.first = depleted.next;
-                chunks.getFirst().open(); // open next chunk
-                writeQueueFirst(head);
+        return true;
+    }
+
+    /**
+     * Dequeues up to max elements into the given collection. The head pointer of each touched chunk is only written
+     * once and the whole batch is committed as a single operation with regard to the {@link DurabilityMode}.
+     *
+     * @param target the collection to add the elements to
+     * @param max the maximum number of elements to dequeue
+     * @return the number of dequeued elements
+     * @throws IOException if a depleted chunk could not be removed
+     */
+    @Override
+    public int drainTo(Collection<? super byte[]> target, int max) throws IOException {
+        return drain(target, max);
+    }
+
+    /**
+     * Dequeues up to max elements without reading them, like {@link #drainTo(Collection, int)}.
+     */
+    int discard(int max) throws IOException {
+        return drain(null, max);
+    }
+
+    private int drain(Collection<? super byte[]> target, int max) throws IOException {
+        final long start = startTime();
+        int count = 0;
+        long bytes = 0;
+        try {
+            Chunk chunk;
+            while (count < max && (chunk = headChunk()) != null) {
+                cachedHeadSize = -1;
+                try {
+                    while (count < max && readableChunk() == chunk) {
+                        Batch batch = batchOf(chunk);
+                        int length;
+                        if (batch != null) {
+                            length = batch.lengthOf(chunk.headIndex);
+                            if (target != null) {
+                                target.add(batch.read(chunk.headIndex, new byte[length]));
+                            }
+                        } else if (isSpanning(chunk)) {
+                            length = spanningLength(chunk);
+                            if (target != null) {
+                                target.add(readSpanning(chunk, new byte[length]));
+                            }
+                        } else {
+                            length = chunk.peekLength();
+                            if (target != null) {
+                                target.add(chunk.peek(new byte[length]));
+                            }
+                        }
+                        advanceHead(chunk);
+                        count++;
+                        bytes += length;
+                    }
+                } finally {
+                    writeHeadPtr(chunk);
+                }
             }
+        } finally {
+            if (count > 0) {
+                committed(count);
+                dequeued(count, bytes, start);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Persists the head pointer of the given head chunk, which resets the chunk or removes it from the queue if it
+     * has been depleted.
+     */
+    private void writeHeadPtr(Chunk chunk) throws IOException {
+        final long next = chunk.next;
+        if (chunk.headPtr < chunk.tailPtr) {
+            chunk.writeChunkHeadPtr();
+        } else if (next != NULL_REF) {
+            dropHeadChunk();
+        } else if (!shared && claimedChunk == null) {
+            resetChunk(chunk);
         } else {
+            // the producer keeps appending where it is
             chunk.writeChunkHeadPtr();
-            chunk.force();
         }
+    }
 
-        return true;
+    /**
+     * Moves the head past the head element. Continuation fragments are skipped once their chunks become the head
+     * chunk, batch records once their last element has been dequeued.
+     */
+    private void advanceHead(Chunk chunk) {
+        Batch batch = batchOf(chunk);
+        if (batch != null && chunk.headIndex + 1 < batch.count) {
+            chunk.headIndex = chunk.headIndex + 1;
+            return;
+        }
+        chunk.headIndex = 0;
+        chunk.headPtr = chunk.headPtr + format.entryHeaderSize + chunk.peekLength();
     }
 
     private int peekLength(Chunk chunk) {
         if (cachedHeadSize == -1) {
-            cachedHeadSize = chunk.peekLength();
+            Batch batch = batchOf(chunk);
+            if (batch != null) {
+                cachedHeadSize = batch.lengthOf(chunk.headIndex);
+            } else {
+                cachedHeadSize = isSpanning(chunk) ? spanningLength(chunk) : chunk.peekLength();
+            }
         }
         return cachedHeadSize;
     }
@@ -239,24 +1101,621 @@ public class SimpleQewQew implements QewQew<byte[]> {
     }
 
     public void enqueue(byte[] input, int offset, int length) throws IOException {
-        boolean newChunk = false;
-        Chunk chunk;
-        if (chunks.isEmpty()) {
-            chunk = openChunk(this.head, 1, true, this.chunkSize);
-            head.first = chunk.id;
-            writeQueueFirst(head);
-            chunks.addLast(chunk);
-            newChunk = true;
-            cachedHeadSize = input.length;
+        final long start = startTime();
+        put(input, offset, length);
+        committed(1);
+        enqueued(1, length, start);
+    }
+
+    /**
+     * Enqueues an element without forcing it, regardless of the {@link DurabilityMode}. The element is forced by a
+     * background thread, which group commits all elements that have been enqueued asynchronously while the previous
+     * force was running. Dependent actions of the future that are not asynchronous run on that thread, so they should
+     * not block.
+     *
+     * @param input the element to enqueue
+     * @return a future that is completed with the sequence number of the element once it is durable, sequence numbers
+     *         start at 1 for each opened queue and futures are completed in sequence order
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if the element exceeds {@link #getMaxElementSize()}
+     */
+    public CompletableFuture<Long> enqueueAsync(byte[] input) throws IOException, BufferOverflowException {
+        final long start = startTime();
+        put(input, 0, input.length);
+        enqueued(1, input.length, start);
+        if (committer == null) {
+            committer = new GroupCommitter(this::sync, "qewqew-sync-" + head.path.getFileName());
+        }
+        return committer.register();
+    }
+
+    private void put(byte[] input, int offset, int length) throws IOException {
+        checkElementSize(length);
+        if (length > getMaxContiguousElementSize()) {
+            putSpanning(new ByteBuffer[] {ByteBuffer.wrap(input, offset, length)}, length);
+            return;
+        }
+        Chunk chunk = appendableChunk(null, length);
+        chunk.putPayload(input, offset, length);
+        chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + length;
+        chunk.writeChunkTailPtr();
+    }
+
+    /**
+     * Enqueues the remaining bytes of the given buffer as a single element, the position of the buffer is not
+     * modified. Direct buffers are copied straight into the mapped chunk.
+     *
+     * @param input the element to enqueue
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if the element exceeds {@link #getMaxElementSize()}
+     */
+    public void enqueue(ByteBuffer input) throws IOException, BufferOverflowException {
+        final long start = startTime();
+        int length = input.remaining();
+        checkElementSize(length);
+        if (length > getMaxContiguousElementSize()) {
+            putSpanning(new ByteBuffer[] {input}, length);
+            committed(1);
+            enqueued(1, length, start);
+            return;
+        }
+        Chunk chunk = appendableChunk(null, length);
+        chunk.putPayload(input);
+        chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + length;
+        chunk.writeChunkTailPtr();
+        committed(1);
+        enqueued(1, length, start);
+    }
+
+    /**
+     * Enqueues the remaining bytes of all given buffers as a single element, the positions of the buffers are not
+     * modified.
+     *
+     * @param parts the parts of the element to enqueue
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if the element exceeds {@link #getMaxElementSize()}
+     */
+    public void enqueue(ByteBuffer... parts) throws IOException, BufferOverflowException {
+        final long start = startTime();
+        long totalLength = 0;
+        for (ByteBuffer part : parts) {
+            totalLength += part.remaining();
+        }
+        if (totalLength > getMaxElementSize()) {
+            throw new BufferOverflowException();
+        }
+        int length = (int) totalLength;
+        if (length > getMaxContiguousElementSize()) {
+            putSpanning(parts, length);
+            committed(1);
+            enqueued(1, length, start);
+            return;
+        }
+        Chunk chunk = appendableChunk(null, length);
+        chunk.putPayload(parts, length);
+        chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + length;
+        chunk.writeChunkTailPtr();
+        committed(1);
+        enqueued(1, length, start);
+    }
+
+    /**
+     * Enqueues all given elements, the tail pointer of each touched chunk is only written once and the whole batch
+     * is committed as a single operation with regard to the {@link DurabilityMode}.
+     * If an element is too large, the elements before it are still enqueued. With {@link QewOptions#withCompression}
+     * the elements are compressed in batch records.
+     *
+     * @param elems the elements to enqueue
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if an element exceeds {@link #getMaxElementSize()}
+     */
+    @Override
+    public void enqueueAll(Iterable<? extends byte[]> elems) throws IOException, BufferOverflowException {
+        final long start = startTime();
+        final Batch.Writer batch = batchWriter();
+        Chunk chunk = null;
+        int count = 0;
+        long bytes = 0;
+        try {
+            for (byte[] elem : elems) {
+                checkElementSize(elem.length);
+                if (batch != null && elem.length <= getMaxContiguousElementSize()) {
+                    if (!batch.fits(elem.length)) {
+                        chunk = putBatch(chunk, batch);
+                    }
+                    if (batch.fits(elem.length)) {
+                        batch.add(elem, 0, elem.length);
+                        count++;
+                        bytes += elem.length;
+                        continue;
+                    }
+                }
+                if (elem.length > getMaxContiguousElementSize()) {
+                    chunk = flushTailPtr(chunk);
+                    putSpanning(new ByteBuffer[] {ByteBuffer.wrap(elem)}, elem.length);
+                    count++;
+                    bytes += elem.length;
+                    continue;
+                }
+                chunk = appendableChunk(chunk, elem.length);
+                chunk.putPayload(elem, 0, elem.length);
+                chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + elem.length;
+                count++;
+                bytes += elem.length;
+            }
+            chunk = putBatch(chunk, batch);
+        } catch (BufferOverflowException e) {
+            chunk = putBatch(chunk, batch);
+            throw e;
+        } finally {
+            flushTailPtr(chunk);
+            if (count > 0) {
+                committed(count);
+                enqueued(count, bytes, start);
+            }
+        }
+    }
+
+    /**
+     * Enqueues the remaining bytes of each of the given buffers as an element the same way
+     * {@link #enqueueAll(Iterable)} does. The positions of the buffers are not modified.
+     *
+     * @param elems the elements to enqueue
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if an element exceeds {@link #getMaxElementSize()}
+     */
+    public void enqueueAll(ByteBuffer[] elems) throws IOException, BufferOverflowException {
+        final long start = startTime();
+        final Batch.Writer batch = batchWriter();
+        Chunk chunk = null;
+        int count = 0;
+        long bytes = 0;
+        try {
+            for (ByteBuffer elem : elems) {
+                int length = elem.remaining();
+                checkElementSize(length);
+                if (batch != null && length <= getMaxContiguousElementSize()) {
+                    if (!batch.fits(length)) {
+                        chunk = putBatch(chunk, batch);
+                    }
+                    if (batch.fits(length)) {
+                        batch.add(elem);
+                        count++;
+                        bytes += length;
+                        continue;
+                    }
+                }
+                if (length > getMaxContiguousElementSize()) {
+                    chunk = flushTailPtr(chunk);
+                    putSpanning(new ByteBuffer[] {elem}, length);
+                    count++;
+                    bytes += length;
+                    continue;
+                }
+                chunk = appendableChunk(chunk, length);
+                chunk.putPayload(elem);
+                chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + length;
+                count++;
+                bytes += length;
+            }
+            chunk = putBatch(chunk, batch);
+        } catch (BufferOverflowException e) {
+            chunk = putBatch(chunk, batch);
+            throw e;
+        } finally {
+            flushTailPtr(chunk);
+            if (count > 0) {
+                committed(count);
+                enqueued(count, bytes, start);
+            }
+        }
+    }
+
+    /**
+     * Returns the empty writer of batch records or null if this queue does not compress.
+     */
+    private Batch.Writer batchWriter() {
+        if (compression == null || !format.compression) {
+            return null;
+        }
+        if (batchWriter == null) {
+            batchWriter = new Batch.Writer(Math.min(Batch.MAX_SIZE, format.maxEntryLength));
+        }
+        batchWriter.clear();
+        return batchWriter;
+    }
+
+    /**
+     * Writes the collected elements as a single compressed batch record or as individual entries, if the record would
+     * not be smaller or does not fit into a chunk.
+     */
+    private Chunk putBatch(Chunk chunk, Batch.Writer batch) throws IOException {
+        if (batch == null || batch.isEmpty()) {
+            return chunk;
+        }
+        final byte[] record = batch.compress(compression);
+        if (record.length < batch.size() && record.length <= getMaxContiguousElementSize()) {
+            chunk = appendableChunk(chunk, record.length);
+            chunk.putPayload(record, 0, record.length, QewFormat.ENTRY_FLAG_BATCH);
+            chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + record.length;
         } else {
+            final byte[] buffer = batch.buffer();
+            int offset = 0;
+            while (offset < batch.size()) {
+                int length = batch.lengthAt(offset);
+                offset += Integer.BYTES;
+                chunk = appendableChunk(chunk, length);
+                chunk.putPayload(buffer, offset, length);
+                chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + length;
+                offset += length;
+            }
+        }
+        batch.clear();
+        return chunk;
+    }
+
+    /**
+     * Claims space for an element of up to maxLength bytes in the tail chunk and returns a writable view of it, which
+     * allows the element to be written in place. The element is enqueued by {@link #commit(int)}, until then no other
+     * element can be enqueued. Claiming again replaces the uncommitted claim.
+     *
+     * @param maxLength the maximum length of the element
+     * @return a writable view of the claimed space with maxLength bytes remaining
+     * @throws IOException if a new chunk could not be created
+     * @throws BufferOverflowException if maxLength exceeds {@link #getMaxElementSize()}
+     */
+    public ByteBuffer claim(int maxLength) throws IOException, BufferOverflowException {
+        claimedChunk = null;
+        checkContiguousElementSize(maxLength);
+        Chunk chunk = appendableChunk(null, maxLength);
+        ByteBuffer claimed = chunk.claim(maxLength);
+        claimedChunk = chunk;
+        claimedLength = maxLength;
+        return claimed;
+    }
+
+    /**
+     * Enqueues the first actualLength bytes of the space claimed by {@link #claim(int)} as an element.
+     *
+     * @param actualLength the actual length of the element
+     * @throws IllegalStateException if no space has been claimed
+     * @throws IllegalArgumentException if actualLength exceeds the claimed length
+     */
+    public void commit(int actualLength) {
+        final long start = startTime();
+        Chunk chunk = claimedChunk;
+        if (chunk == null) {
+            throw new IllegalStateException("Nothing has been claimed!");
+        }
+        if (actualLength < 0 || actualLength > claimedLength) {
+            throw new IllegalArgumentException("actualLength must be within the claimed length of " + claimedLength + "!");
+        }
+        claimedChunk = null;
+        chunk.putLength(actualLength);
+        chunk.tailPtr = chunk.tailPtr + format.entryHeaderSize + actualLength;
+        chunk.writeChunkTailPtr();
+        committed(1);
+        enqueued(1, actualLength, start);
+    }
+
+    /**
+     * Drops the space claimed by {@link #claim(int)} without enqueueing anything.
+     */
+    void abandonClaim() {
+        claimedChunk = null;
+    }
+
+    private void checkElementSize(int length) {
+        if (length > getMaxElementSize()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private void checkContiguousElementSize(int length) {
+        if (length > getMaxContiguousElementSize()) {
+            throw new BufferOverflowException();
+        }
+    }
+
+    private static Chunk flushTailPtr(Chunk chunk) {
+        if (chunk != null) {
+            chunk.writeChunkTailPtr();
+        }
+        return null;
+    }
+
+    /**
+     * Writes an element that does not fit into a single chunk as a chain of fragments, starting in the free space of
+     * the tail chunk. Each continuation chunk is published and closed as soon as its fragment has been written, so an
+     * element spanning thousands of chunks does not exhaust the file descriptors. The tail pointer of the first fragment
+     * is published last, so a crash in between only leaves continuation fragments without a first fragment, which are
+     * skipped by the consumer.
+     */
+    private void putSpanning(ByteBuffer[] parts, int length) throws IOException {
+        if (claimedChunk != null) {
+            throw new IllegalStateException("The claimed element has not been committed yet!");
+        }
+        final ByteBuffer[] sources = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sources[i] = parts[i].duplicate();
+        }
+        Chunk chunk = chunks.isEmpty() ? firstChunk() : chunks.getLast();
+        if (chunk.tailPtr + format.entryHeaderSize >= chunkSize) {
+            chunk = rollover(chunk);
+        }
+
+        final Chunk first = chunk;
+        int firstTailPtr = 0;
+        int remaining = length;
+        int flags = 0;
+        int source = 0;
+        while (true) {
+            final int ptr = chunk.tailPtr;
+            final int fragment = (int) Math.min(remaining, Math.min(chunkSize - ptr - format.entryHeaderSize, format.maxEntryLength));
+            remaining -= fragment;
+            if (remaining > 0) {
+                flags |= QewFormat.ENTRY_FLAG_CONTINUED;
+            } else {
+                flags &= ~QewFormat.ENTRY_FLAG_CONTINUED;
+            }
+            chunk.putEntryHeader(ptr, fragment, flags);
+            int offset = ptr + format.entryHeaderSize;
+            int left = fragment;
+            while (left > 0) {
+                ByteBuffer src = sources[source];
+                int n = Math.min(left, src.remaining());
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + n);
+                chunk.putBytes(offset, slice);
+                src.position(src.position() + n);
+                offset += n;
+                left -= n;
+                if (!src.hasRemaining()) {
+                    source++;
+                }
+            }
+            chunk.putChecksum(ptr);
+            if (chunk == first) {
+                firstTailPtr = offset;
+            } else {
+                chunk.tailPtr = offset;
+            }
+            if (remaining == 0) {
+                break;
+            }
+            flags = QewFormat.ENTRY_FLAG_CONTINUATION;
+            // the rollover publishes the tail pointer of a continuation chunk and closes it
+            chunk = rollover(chunk, chunk != first);
+        }
+        if (chunk != first) {
+            chunk.writeChunkTailPtr();
+        }
+
+        first.tailPtr = firstTailPtr;
+        first.writeChunkTailPtr();
+        if (first != chunk) {
+            release(first);
+        }
+    }
+
+    /**
+     * Returns a chunk that can take an element of the given length, which is either the given chunk or a new chunk
+     * appended after it. If no chunk is given, the current tail chunk is used.
+     */
+    private Chunk appendableChunk(Chunk chunk, int length) throws IOException {
+        if (claimedChunk != null) {
+            throw new IllegalStateException("The claimed element has not been committed yet!");
+        }
+        if (chunk == null) {
+            if (chunks.isEmpty()) {
+                return firstChunk();
+            }
             chunk = chunks.getLast();
         }
 
-        writeToChunk(chunk, input, offset, length, newChunk);
+        if (chunk.tailPtr + format.entryHeaderSize + length > chunkSize) {
+            return rollover(chunk);
+        }
+        return chunk;
+    }
+
+    private Chunk firstChunk() throws IOException {
+        Chunk chunk = openChunk(1, true);
+        head.first = chunk.id;
+        writeQueueFirst(head);
+        chunks.addLast(chunk);
+        metrics.chunkCreated();
+        prepareNextChunk(chunk);
+        return chunk;
+    }
+
+    private Chunk rollover(Chunk chunk) throws IOException {
+        return rollover(chunk, true);
+    }
+
+    /**
+     * Appends a new chunk after the given full tail chunk. Unless release is false, the full chunk is closed or dropped
+     * right away.
+     */
+    private Chunk rollover(Chunk chunk, boolean release) throws IOException {
+        Chunk next = openNextChunk(chunk);
+        chunk.writeChunkTailPtr();
+        // the consumer expects the next chunk to be queued once it sees the next ref
+        chunks.addLast(next);
+        metrics.chunkCreated();
+        chunk.link(next.id);
+        if (release) {
+            release(chunk);
+        }
+        return next;
+    }
+
+    private void release(Chunk full) throws IOException {
+        if (!shared) {
+            if (full != chunks.getFirst()) {
+                // the head chunk stays open for the consumer
+                full.close();
+            } else if (full.headPtr >= full.tailPtr) {
+                // a depleted head chunk is not going to be read anymore
+                dropHeadChunk();
+            }
+        } else {
+            closeIdleChunksAfterRollover();
+        }
+    }
+
+    /**
+     * Enqueues an element while other threads might do the same on a shared queue: space in the tail chunk is
+     * reserved by a CAS on the reservation cursor of the chunk, the payload is copied without holding a lock and the
+     * tail pointer is advanced in reservation order. Only rolling over to a new chunk is done under a lock.
+     */
+    void enqueueConcurrently(byte[] input, int offset, int length) throws IOException {
+        final long start = startTime();
+        checkContiguousElementSize(length);
+        final int size = format.entryHeaderSize + length;
+        while (true) {
+            Chunk chunk = chunks.peekLast();
+            if (chunk != null) {
+                int pos = chunk.reserve(size);
+                if (pos >= 0) {
+                    chunk.putPayloadAt(pos, input, offset, length);
+                    chunk.publish(pos, pos + size);
+                    committed(1);
+                    enqueued(1, length, start);
+                    return;
+                }
+            }
+            rolloverConcurrently(chunk);
+        }
+    }
+
+    /**
+     * Enqueues all elements like {@link #enqueueConcurrently(byte[], int, int)}, but reserves space for as many of the
+     * elements as fit into the tail chunk at once and commits them as a single operation with regard to the
+     * {@link DurabilityMode}.
+     */
+    void enqueueAllConcurrently(Iterable<? extends byte[]> elems) throws IOException {
+        final long start = startTime();
+        final List<byte[]> batch = new ArrayList<>();
+        for (byte[] elem : elems) {
+            checkContiguousElementSize(elem.length);
+            batch.add(elem);
+        }
+        long bytes = 0;
+        int next = 0;
+        try {
+            while (next < batch.size()) {
+                Chunk chunk = chunks.peekLast();
+                if (chunk != null) {
+                    final long free = chunkSize - chunk.reservedPtr();
+                    int end = next;
+                    int size = 0;
+                    while (end < batch.size() && size + format.entryHeaderSize + batch.get(end).length <= free) {
+                        size += format.entryHeaderSize + batch.get(end).length;
+                        end++;
+                    }
+                    if (end > next) {
+                        int pos = chunk.reserve(size);
+                        if (pos < 0) {
+                            // another producer reserved in the meantime
+                            continue;
+                        }
+                        final int first = pos;
+                        for (int i = next; i < end; i++) {
+                            byte[] elem = batch.get(i);
+                            chunk.putPayloadAt(pos, elem, 0, elem.length);
+                            pos += format.entryHeaderSize + elem.length;
+                            bytes += elem.length;
+                        }
+                        chunk.publish(first, pos);
+                        next = end;
+                        continue;
+                    }
+                }
+                rolloverConcurrently(chunk);
+            }
+        } finally {
+            if (next > 0) {
+                committed(1);
+                enqueued(next, bytes, start);
+            }
+        }
+    }
+
+    private void rolloverConcurrently(Chunk full) throws IOException {
+        rolloverLock.lock();
+        try {
+            if (chunks.peekLast() != full) {
+                // another producer rolled over already
+                return;
+            }
+            if (full == null) {
+                firstChunk();
+            } else {
+                // all reservations in the full chunk have to be published before the next ref is written
+                full.awaitTail(full.seal());
+                rollover(full);
+            }
+        } finally {
+            rolloverLock.unlock();
+        }
+    }
+
+    /**
+     * Forces all modifications that have not been forced yet, regardless of the {@link DurabilityMode}. This might be
+     * called concurrently with other operations.
+     */
+    @Override
+    public void sync() {
+        final long start = startTime();
+        pendingOperations.set(0);
+        // only chunks with modifications are forced, full chunks that have not been closed yet included
+        for (Chunk chunk : chunks) {
+            chunk.sync();
+        }
+        head.sync();
+        if (metered) {
+            metrics.synced(System.nanoTime() - start);
+        }
+    }
+
+    private long startTime() {
+        return metered ? System.nanoTime() : 0;
+    }
+
+    private void enqueued(int count, long bytes, long start) {
+        if (metered) {
+            metrics.enqueued(count, bytes, System.nanoTime() - start);
+        }
+    }
+
+    private void dequeued(int count, long bytes, long start) {
+        if (metered) {
+            metrics.dequeued(count, bytes, System.nanoTime() - start);
+        }
+    }
+
+    private void committed(int operations) {
+        long pending = pendingOperations.addAndGet(operations);
+        if (pending == operations) {
+            pendingSince = System.nanoTime();
+        }
+        if (durability.requiresSync(pending, pendingSince)) {
+            sync();
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if (committer != null) {
+            committer.close();
+        }
+        if (allocator != null) {
+            Chunk prepared = allocator.cancel();
+            if (prepared != null) {
+                dropChunk(prepared);
+            }
+        }
         for (Chunk chunk : chunks) {
             try {
                 chunk.close();
@@ -265,13 +1724,20 @@ public class SimpleQewQew implements QewQew<byte[]> {
             }
         }
         head.close();
-        if (isEmpty()) {
+        metrics.close();
+        // the chunks are closed already, so entries are not verified anymore
+        if (nonEmptyChunk() == null) {
             for (Chunk chunk : chunks) {
                 try {
                     chunk.drop();
                 } catch (IOException ignored) {
 
                 }
+            }
+            try {
+                pool.clear();
+            } catch (IOException ignored) {
+
             }
             try {
                 Files.delete(head.path);
@@ -282,43 +1748,23 @@ public class SimpleQewQew implements QewQew<byte[]> {
         }
     }
 
-    private void writeToChunk(Chunk chunk, byte[] payload, int offset, int length, boolean newChunk) throws IOException {
-        if (chunk.tailPtr + ENTRY_HEADER_SIZE + length > chunkSize) {
-            int nextId = (chunk.id + 1) % MAX_ID;
-            if (nextId == 0) {
-                nextId++;
-            }
-            chunk.next = nextId;
-            chunk.writeChunkNextRef();
-            Chunk next = openChunk(this.head, nextId, true, this.chunkSize);
-            chunk.close();
-            chunks.addLast(next);
-            chunk = next;
-            newChunk = true;
-        }
-
-        chunk.putPayload(payload, offset, length);
-
-        chunk.tailPtr = chunk.tailPtr + ENTRY_HEADER_SIZE + length;
-        if (newChunk) {
-            chunk.writeChunkHeader();
-        } else {
-            chunk.writeChunkTailPtr();
+    private void resetChunk(Chunk chunk) {
+        if (chunk == verifiedChunk) {
+            verifiedChunk = null;
+            headBatch = null;
         }
-        chunk.force();
-    }
-
-    private static void resetChunk(Chunk chunk) {
-        chunk.headPtr = CHUNK_HEADER_SIZE;
-        chunk.tailPtr = CHUNK_HEADER_SIZE;
+        chunk.headPtr = format.chunkHeaderSize;
+        chunk.headIndex = 0;
+        chunk.tailPtr = format.chunkHeaderSize;
         chunk.next = NULL_REF;
+        chunk.resetReservations();
         chunk.writeChunkHeader();
     }
 
 
     private static void writeQueueFirst(Head head) {
-        putUShort(head.map, 0, head.first);
-        head.map.force();
+        head.format.putRef(head.map, head.format.firstRefOffset, head.first);
+        head.dirty = true;
     }
 
     static int getUShort(ByteBuffer buf, int index) {
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link PollableQewQew} for exactly one producer thread and one consumer thread, which does not lock at all.
+ * The producer only touches the tail pointer and the consumer only the head pointer of the chunks, both are
+ * published through volatile writes. A waiting consumer only parks after the {@link WaitStrategy} has been
+ * exhausted and only while the queue is actually empty. See {@link MpscPollableQewQew} for multiple producers.
+ *
+ * {@link #clear()} is a consumer operation that dequeues all elements, {@link #close()} and {@link #sync()} must not
+ * be called concurrently with other operations.
+ */
+public class SpscPollableQewQew implements PollableQewQew<byte[]> {
+
+    final SimpleQewQew qew;
+    private final WaitStrategy waitStrategy;
+    private volatile Thread waiter;
+    private volatile Runnable enqueueListener;
+
+    public SpscPollableQewQew(SimpleQewQew qew) {
+        this(qew, WaitStrategy.PARK);
+    }
+
+    public SpscPollableQewQew(SimpleQewQew qew, WaitStrategy waitStrategy) {
+        this.qew = qew;
+        this.waitStrategy = waitStrategy;
+        this.waiter = null;
+        qew.shareBetweenThreads();
+    }
+
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize) throws IOException {
+        return new SpscPollableQewQew(new SimpleQewQew(queuePath, chunkSize));
+    }
+
+    public static PollableQewQew<byte[]> from(Path queuePath, long chunkSize, QewOptions options, WaitStrategy waitStrategy) throws IOException {
+        return new SpscPollableQewQew(new SimpleQewQew(queuePath, chunkSize, options), waitStrategy);
+    }
+
+    @Override
+    public long getChunkSize() {
+        return qew.getChunkSize();
+    }
+
+    @Override
+    public long getMaxElementSize() {
+        return qew.getMaxElementSize();
+    }
+
+    @Override
+    public boolean poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int spins = waitStrategy.getSpins();
+        int yields = waitStrategy.getYields();
+        while (qew.isEmpty()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (spins > 0) {
+                spins--;
+            } else if (yields > 0) {
+                yields--;
+                Thread.yield();
+            } else {
+                waiter = Thread.currentThread();
+                // the producer either sees the waiter or the waiter sees the element
+                if (qew.isEmpty()) {
+                    qew.getMetrics().waiterBlocked();
+                    LockSupport.parkNanos(this, remaining);
+                    qew.getMetrics().waiterResumed();
+                }
+                waiter = null;
+            }
+        }
+        return true;
+    }
+
+    void signal() {
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+        Runnable listener = enqueueListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Sets the listener that is called by producers after they have enqueued elements, it must not block.
+     */
+    void setEnqueueListener(Runnable listener) {
+        this.enqueueListener = listener;
+    }
+
+    @Override
+    public byte[] peek() {
+        return qew.peek();
+    }
+
+    @Override
+    public byte[] peek(long timeout, TimeUnit unit) throws InterruptedException {
+        if (poll(timeout, unit)) {
+            return qew.peek();
+        }
+        return null;
+    }
+
+    @Override
+    public boolean dequeue() throws IOException {
+        return qew.dequeue();
+    }
+
+    @Override
+    public void enqueue(byte[] elem) throws IOException {
+        qew.enqueue(elem);
+        signal();
+    }
+
+    @Override
+    public void enqueueAll(Iterable<? extends byte[]> elems) throws IOException {
+        qew.enqueueAll(elems);
+        signal();
+    }
+
+    @Override
+    public byte[] dequeue(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        byte[] elem = null;
+        if (poll(timeout, unit)) {
+            elem = qew.peek();
+            if (elem != null) {
+                qew.dequeue();
+            }
+        }
+        return elem;
+    }
+
+    @Override
+    public int drainTo(Collection<? super byte[]> target, int max) throws IOException {
+        return qew.drainTo(target, max);
+    }
+
+    @Override
+    public List<byte[]> poll(int max, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        List<byte[]> elems = new ArrayList<>();
+        if (poll(timeout, unit)) {
+            qew.drainTo(elems, max);
+        }
+        return elems;
+    }
+
+    @Override
+    public byte[] dequeueIf(long timeout, TimeUnit unit, DequeueCondition<byte[]> condition) throws IOException, InterruptedException, ExecutionException {
+        byte[] elem = peek(timeout, unit);
+        try {
+            if (elem != null && condition.test(elem)) {
+                qew.dequeue();
+                return elem;
+            }
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return qew.isEmpty();
+    }
+
+    @Override
+    public boolean clear() throws IOException {
+        return qew.discard(Integer.MAX_VALUE) > 0;
+    }
+
+    @Override
+    public void sync() {
+        qew.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        qew.close();
+    }
+}
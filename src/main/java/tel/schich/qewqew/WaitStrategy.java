@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+/**
+ * Defines how a consumer of a {@link SpscPollableQewQew} waits for elements: it first busy spins, then yields its
+ * time slice and finally parks until the producer wakes it up or the timeout elapses.
+ */
+public final class WaitStrategy {
+    /**
+     * Parks immediately, which is cheap on CPU but adds the wake up latency of the producer unparking the consumer.
+     */
+    public static final WaitStrategy PARK = new WaitStrategy(0, 0);
+
+    private final int spins;
+    private final int yields;
+
+    private WaitStrategy(int spins, int yields) {
+        this.spins = spins;
+        this.yields = yields;
+    }
+
+    /**
+     * Creates a strategy that spins and yields the given number of times before parking.
+     *
+     * @param spins the number of busy spins
+     * @param yields the number of {@link Thread#yield()} calls after spinning
+     * @return the wait strategy
+     */
+    public static WaitStrategy backoff(int spins, int yields) {
+        if (spins < 0 || yields < 0) {
+            throw new IllegalArgumentException("spins and yields must not be negative!");
+        }
+        return new WaitStrategy(spins, yields);
+    }
+
+    int getSpins() {
+        return spins;
+    }
+
+    int getYields() {
+        return yields;
+    }
+
+    @Override
+    public String toString() {
+        return "WaitStrategy(spins=" + spins + ", yields=" + yields + ")";
+    }
+}
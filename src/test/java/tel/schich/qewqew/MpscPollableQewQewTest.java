@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
+
+class MpscPollableQewQewTest {
+
+    private static final int CHUNK_SIZE = 256;
+
+    @Test
+    void concurrentProducers() throws Exception {
+        concurrentProducers(QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED));
+        concurrentProducers(QewOptions.DEFAULT.withSpareChunks(2));
+        concurrentProducers(QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED).withMaxOpenChunks(3));
+    }
+
+    private void concurrentProducers(QewOptions options) throws Exception {
+        final int producers = 4;
+        final int count = 5000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try (PollableQewQew<byte[]> q = MpscPollableQewQew.from(randomHeadPath(), CHUNK_SIZE, options, WaitStrategy.backoff(100, 10))) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        // variable sizes to provoke partially filled chunks
+                        ByteBuffer elem = ByteBuffer.allocate(8 + (i % 32));
+                        elem.putInt(producer).putInt(i);
+                        q.enqueue(elem.array());
+                    }
+                    return null;
+                }));
+            }
+
+            // elements of each producer are dequeued in the order they have been enqueued
+            final int[] next = new int[producers];
+            for (int i = 0; i < producers * count; i++) {
+                byte[] actual = q.dequeue(10, SECONDS);
+                assertNotNull(actual, "element " + i + " is missing");
+                ByteBuffer elem = ByteBuffer.wrap(actual);
+                int producer = elem.getInt();
+                assertEquals(next[producer]++, elem.getInt());
+                assertEquals(8 + (next[producer] - 1) % 32, actual.length);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertTrue(q.isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void enqueueAllIsCommittedOnce() throws Exception {
+        final Path headPath = randomHeadPath();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        try (PollableQewQew<byte[]> q = MpscPollableQewQew.from(headPath, CHUNK_SIZE, QewOptions.DEFAULT, WaitStrategy.PARK)) {
+            List<byte[]> batch = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                batch.add(ByteBuffer.allocate(8 + (i % 32)).putInt(i).array());
+            }
+            q.enqueueAll(batch);
+            CompositeData latency = (CompositeData) server.getAttribute(name, "SyncLatency");
+            assertEquals(1L, latency.get("count"));
+            assertEquals(50L, server.getAttribute(name, "EnqueuedElements"));
+
+            for (byte[] expected : batch) {
+                assertArrayEquals(expected, q.dequeue(0, SECONDS));
+            }
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void concurrentBatches() throws Exception {
+        final int producers = 4;
+        final int batches = 500;
+        final int batchSize = 10;
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED);
+        try (PollableQewQew<byte[]> q = MpscPollableQewQew.from(randomHeadPath(), CHUNK_SIZE, options, WaitStrategy.PARK)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int producer = p;
+                futures.add(executor.submit(() -> {
+                    int i = 0;
+                    for (int b = 0; b < batches; b++) {
+                        List<byte[]> batch = new ArrayList<>();
+                        for (int e = 0; e < batchSize; e++, i++) {
+                            batch.add(ByteBuffer.allocate(8 + (i % 32)).putInt(producer).putInt(i).array());
+                        }
+                        q.enqueueAll(batch);
+                    }
+                    return null;
+                }));
+            }
+
+            final int[] next = new int[producers];
+            for (int i = 0; i < producers * batches * batchSize; i++) {
+                byte[] actual = q.dequeue(10, SECONDS);
+                assertNotNull(actual, "element " + i + " is missing");
+                ByteBuffer elem = ByteBuffer.wrap(actual);
+                int producer = elem.getInt();
+                assertEquals(next[producer]++, elem.getInt());
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertTrue(q.isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
+
+class QewPublisherTest {
+
+    private static final int CHUNK_SIZE = 256;
+
+    @Test
+    void demandIsRespected() throws Exception {
+        try (SpscPollableQewQew q = new SpscPollableQewQew(new SimpleQewQew(randomHeadPath(), CHUNK_SIZE))) {
+            for (int i = 0; i < 10; i++) {
+                q.enqueue(new byte[] {(byte) i});
+            }
+            RecordingSubscriber subscriber = new RecordingSubscriber();
+            QewPublisher.from(q, Runnable::run, 4).subscribe(subscriber);
+
+            subscriber.subscription.request(3);
+            assertEquals(3, subscriber.received.size());
+            assertArrayEquals(new byte[] {3}, q.peek());
+
+            subscriber.subscription.request(10);
+            assertEquals(10, subscriber.received.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, subscriber.received.get(i)[0]);
+            }
+            assertTrue(q.isEmpty());
+
+            q.enqueue(new byte[] {10});
+            q.enqueue(new byte[] {11});
+            q.enqueue(new byte[] {12});
+            assertEquals(13, subscriber.received.size());
+            q.enqueue(new byte[] {13});
+            assertEquals(13, subscriber.received.size());
+            assertArrayEquals(new byte[] {13}, q.peek());
+        }
+    }
+
+    @Test
+    void elementsAreDequeuedAfterOnNext() throws Exception {
+        try (SimplePollableQewQew<byte[]> q = new SimplePollableQewQew<>(new SimpleQewQew(randomHeadPath(), CHUNK_SIZE))) {
+            for (int i = 0; i < 5; i++) {
+                q.enqueue(new byte[] {(byte) i});
+            }
+            final AtomicReference<Subscription> subscription = new AtomicReference<>();
+            final List<byte[]> heads = new ArrayList<>();
+            QewPublisher.from(q, Runnable::run, 64).subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription.set(s);
+                }
+
+                @Override
+                public void onNext(ByteBuffer elem) {
+                    try {
+                        heads.add(q.peek());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (elem.get(0) == 2) {
+                        throw new IllegalStateException("not acknowledged");
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    fail("queues do not complete");
+                }
+            });
+            subscription.get().request(Long.MAX_VALUE);
+            assertEquals(3, heads.size());
+            for (int i = 0; i < heads.size(); i++) {
+                assertArrayEquals(new byte[] {(byte) i}, heads.get(i));
+            }
+            assertArrayEquals(new byte[] {2}, q.peek());
+        }
+    }
+
+    @Test
+    void cancelLeavesRemainingElements() throws Exception {
+        try (SpscPollableQewQew q = new SpscPollableQewQew(new SimpleQewQew(randomHeadPath(), CHUNK_SIZE))) {
+            QewPublisher publisher = QewPublisher.from(q);
+            BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+            CountDownLatch subscribed = new CountDownLatch(1);
+            AtomicReference<Subscription> subscription = new AtomicReference<>();
+            publisher.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription.set(s);
+                    subscribed.countDown();
+                    s.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer elem) {
+                    byte[] data = new byte[elem.remaining()];
+                    elem.get(data);
+                    received.add(data);
+                    if (data[0] == 1) {
+                        subscription.get().cancel();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    fail(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    fail("queues do not complete");
+                }
+            });
+            assertTrue(subscribed.await(1, SECONDS));
+
+            q.enqueueAll(Arrays.asList(new byte[] {0}, new byte[] {1}, new byte[] {2}, new byte[] {3}));
+            assertArrayEquals(new byte[] {0}, received.poll(1, SECONDS));
+            assertArrayEquals(new byte[] {1}, received.poll(1, SECONDS));
+            assertNull(received.poll(100, MILLISECONDS));
+            assertArrayEquals(new byte[] {2}, q.peek());
+
+            RecordingSubscriber second = new RecordingSubscriber();
+            QewPublisher.from(q, Runnable::run, 1).subscribe(second);
+            second.subscription.request(2);
+            assertEquals(2, second.received.size());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void enqueueDuringOnSubscribe() throws Exception {
+        try (SpscPollableQewQew q = new SpscPollableQewQew(new SimpleQewQew(randomHeadPath(), CHUNK_SIZE))) {
+            RecordingSubscriber subscriber = new RecordingSubscriber() {
+                @Override
+                public void onSubscribe(Subscription s) {
+                    super.onSubscribe(s);
+                    s.request(1);
+                    try {
+                        // lands after the drain of the request found the queue empty
+                        q.enqueue(new byte[] {1});
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+            QewPublisher.from(q, Runnable::run, 1).subscribe(subscriber);
+            assertEquals(1, subscriber.received.size());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void singleSubscriber() throws Exception {
+        try (SpscPollableQewQew q = new SpscPollableQewQew(new SimpleQewQew(randomHeadPath(), CHUNK_SIZE))) {
+            QewPublisher publisher = QewPublisher.from(q, Runnable::run, 1);
+            RecordingSubscriber first = new RecordingSubscriber();
+            RecordingSubscriber second = new RecordingSubscriber();
+            publisher.subscribe(first);
+            publisher.subscribe(second);
+            assertNull(first.error);
+            assertTrue(second.error instanceof IllegalStateException);
+
+            first.subscription.request(0);
+            assertTrue(first.error instanceof IllegalArgumentException);
+            RecordingSubscriber third = new RecordingSubscriber();
+            publisher.subscribe(third);
+            assertNull(third.error);
+        }
+    }
+
+    private static class RecordingSubscriber implements Subscriber<ByteBuffer> {
+        final List<byte[]> received = new ArrayList<>();
+        Subscription subscription;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(ByteBuffer elem) {
+            byte[] data = new byte[elem.remaining()];
+            elem.get(data);
+            received.add(data);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onComplete() {
+            fail("queues do not complete");
+        }
+    }
+}
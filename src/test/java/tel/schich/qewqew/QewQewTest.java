@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QewQewTest {
+
+    /**
+     * Implements only the abstract methods, like implementations that predate the batch operations.
+     */
+    private static final class MinimalQewQew implements QewQew<String> {
+        private final Deque<String> elems = new ArrayDeque<>();
+        private int enqueues;
+
+        @Override
+        public long getChunkSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public long getMaxElementSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String peek() {
+            return elems.peekFirst();
+        }
+
+        @Override
+        public boolean dequeue() {
+            return elems.pollFirst() != null;
+        }
+
+        @Override
+        public void enqueue(String elem) {
+            enqueues++;
+            elems.addLast(elem);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return elems.isEmpty();
+        }
+
+        @Override
+        public boolean clear() {
+            boolean cleared = !elems.isEmpty();
+            elems.clear();
+            return cleared;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void defaultEnqueueAll() throws Exception {
+        try (MinimalQewQew q = new MinimalQewQew()) {
+            q.enqueueAll(Arrays.asList("a", "b", "c"));
+            assertEquals(3, q.enqueues);
+            assertEquals("a", q.peek());
+        }
+    }
+
+    @Test
+    void defaultDrainTo() throws Exception {
+        try (MinimalQewQew q = new MinimalQewQew()) {
+            q.enqueueAll(Arrays.asList("a", "b", "c"));
+            List<String> drained = new ArrayList<>();
+            assertEquals(2, q.drainTo(drained, 2));
+            assertEquals(Arrays.asList("a", "b"), drained);
+            assertEquals(1, q.drainTo(drained, 2));
+            assertEquals(0, q.drainTo(drained, 2));
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void defaultSync() throws Exception {
+        try (MinimalQewQew q = new MinimalQewQew()) {
+            q.enqueue("a");
+            q.sync();
+            assertEquals("a", q.peek());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
+
+class SerializingQewQewTest {
+
+    private static final int CHUNK_SIZE = 256;
+
+    @Test
+    void strings() throws Exception {
+        final List<String> elems = Arrays.asList("", "abc", "äöü", "€", "😀 smile", "x\uD800y");
+        try (SerializingQewQew<String> q = SerializingQewQew.from(randomHeadPath(), CHUNK_SIZE, Codecs.STRING)) {
+            for (String elem : elems) {
+                q.enqueue(elem);
+            }
+            assertEquals("", q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.consume(elem -> assertEquals("abc", elem)));
+            assertThrows(ExecutionException.class, () -> q.consume(elem -> {
+                throw new IllegalStateException();
+            }));
+            List<String> drained = new ArrayList<>();
+            assertEquals(4, q.drainTo(drained, 10));
+            assertEquals(Arrays.asList("äöü", "€", "😀 smile", "x?y"), drained);
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void utf8MatchesTheJdk() {
+        final String s = "plain ascii, äöü, €, 😀, ߿ࠀ￿";
+        final ByteBuffer buf = ByteBuffer.allocate(Codecs.STRING.maxSize(s));
+        Codecs.STRING.encode(s, buf);
+        buf.flip();
+        assertEquals(ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8)), buf);
+    }
+
+    @Test
+    void primitivesAndComposites() throws Exception {
+        final Codec<Map.Entry<String, List<Long>>> codec = Codecs.composite(
+                Codecs.STRING, Map.Entry::getKey,
+                Codecs.listOf(Codecs.LONG), Map.Entry::getValue,
+                (key, value) -> Collections.singletonMap(key, value).entrySet().iterator().next());
+        try (SerializingQewQew<Map.Entry<String, List<Long>>> q = SerializingQewQew.from(randomHeadPath(), CHUNK_SIZE, codec)) {
+            q.enqueue(Collections.singletonMap("a", Arrays.asList(1L, 2L, 3L)).entrySet().iterator().next());
+            q.enqueue(Collections.singletonMap("", Collections.<Long>emptyList()).entrySet().iterator().next());
+            Map.Entry<String, List<Long>> first = q.peek();
+            assertEquals("a", first.getKey());
+            assertEquals(Arrays.asList(1L, 2L, 3L), first.getValue());
+            q.dequeue();
+            assertEquals("", q.peek().getKey());
+            assertTrue(q.peek().getValue().isEmpty());
+        }
+        try (SerializingQewQew<Double> q = SerializingQewQew.from(randomHeadPath(), CHUNK_SIZE, Codecs.DOUBLE)) {
+            q.enqueueAll(Arrays.asList(1.5, -0.0, Double.NaN));
+            List<Double> drained = new ArrayList<>();
+            q.drainTo(drained, 3);
+            assertEquals(Arrays.asList(1.5, -0.0, Double.NaN), drained);
+        }
+    }
+
+    @Test
+    void largeElements() throws Exception {
+        final QewOptions options = QewOptions.DEFAULT.withElementSpanning(true);
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 3 * CHUNK_SIZE; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        final List<String> elems = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            elems.add("element " + i);
+        }
+        try (SerializingQewQew<String> q = SerializingQewQew.from(randomHeadPath(), CHUNK_SIZE, options, Codecs.STRING)) {
+            // the maximum size of the string does not fit, but the encoded string does
+            q.enqueue(large.substring(0, CHUNK_SIZE / 2));
+            q.enqueue(large.toString());
+            q.enqueueAll(elems);
+            assertEquals(large.substring(0, CHUNK_SIZE / 2), q.peek());
+            q.dequeue();
+            assertEquals(large.toString(), q.peek());
+            q.dequeue();
+            List<String> drained = new ArrayList<>();
+            assertEquals(50, q.drainTo(drained, 100));
+            assertEquals(elems, drained);
+        }
+    }
+
+    @Test
+    void oversizedScratchIsDropped() throws Exception {
+        final QewOptions options = QewOptions.DEFAULT.withElementSpanning(true).withDurability(DurabilityMode.OS_MANAGED);
+        final char[] large = new char[SerializingQewQew.MAX_RETAINED_SCRATCH_SIZE];
+        Arrays.fill(large, 'a');
+        try (SerializingQewQew<String> q = SerializingQewQew.from(randomHeadPath(), 64 * 1024, options, Codecs.STRING)) {
+            q.enqueue(new String(large));
+            assertEquals(SerializingQewQew.SCRATCH_SIZE, q.getScratchCapacity());
+            q.enqueueAll(Arrays.asList("small", new String(large)));
+            assertEquals(SerializingQewQew.SCRATCH_SIZE, q.getScratchCapacity());
+            q.enqueueAll(Arrays.asList("a", "b"));
+            assertEquals(SerializingQewQew.SCRATCH_SIZE, q.getScratchCapacity());
+
+            assertEquals(new String(large), q.peek());
+            q.dequeue();
+            assertEquals("small", q.peek());
+        }
+    }
+}
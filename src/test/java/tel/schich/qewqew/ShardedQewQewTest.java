@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
+
+class ShardedQewQewTest {
+
+    private static final int CHUNK_SIZE = 256;
+
+    private static List<Path> randomHeadPaths(int shards) {
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            paths.add(randomHeadPath());
+        }
+        return paths;
+    }
+
+    private static byte[] elem(int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(i).array();
+    }
+
+    private static int valueOf(byte[] elem) {
+        return ByteBuffer.wrap(elem).getInt();
+    }
+
+    @Test
+    void roundRobin() throws Exception {
+        try (ShardedQewQew q = ShardedQewQew.from(randomHeadPaths(3), CHUNK_SIZE)) {
+            assertEquals(3, q.countShards());
+            assertTrue(q.isEmpty());
+            assertNull(q.peek());
+            assertFalse(q.dequeue());
+
+            for (int i = 0; i < 9; i++) {
+                q.enqueue(elem(i));
+            }
+            for (int shard = 0; shard < 3; shard++) {
+                assertEquals(shard, valueOf(q.getShard(shard).peek()));
+            }
+
+            for (int i = 0; i < 9; i++) {
+                assertEquals(i, valueOf(q.peek()));
+                assertTrue(q.dequeue());
+            }
+            assertTrue(q.isEmpty());
+
+            q.enqueueAll(Arrays.asList(elem(0), elem(1)));
+            q.enqueueAll(Arrays.asList(elem(2), elem(3)));
+            List<byte[]> drained = new ArrayList<>();
+            assertEquals(4, q.drainTo(drained, 10));
+            assertTrue(q.isEmpty());
+            assertEquals(0, valueOf(drained.get(0)));
+            assertEquals(2, valueOf(drained.get(1)));
+            assertEquals(1, valueOf(drained.get(2)));
+            assertEquals(3, valueOf(drained.get(3)));
+        }
+    }
+
+    @Test
+    void dequeueWithoutPeek() throws Exception {
+        try (ShardedQewQew q = ShardedQewQew.from(randomHeadPaths(3), CHUNK_SIZE)) {
+            q.getShard(1).enqueue(elem(1));
+            q.getShard(2).enqueue(elem(2));
+            assertTrue(q.dequeue());
+            assertTrue(q.getShard(1).isEmpty());
+            assertEquals(2, valueOf(q.peek()));
+            assertTrue(q.dequeue());
+            assertFalse(q.dequeue());
+        }
+    }
+
+    @Test
+    void mergedViewWaitsForShards() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ShardedQewQew q = ShardedQewQew.from(randomHeadPaths(3), CHUNK_SIZE)) {
+            assertNull(q.dequeue(100, MILLISECONDS));
+            assertTrue(q.poll(3, 0, SECONDS).isEmpty());
+
+            Future<byte[]> dequeued = executor.submit(() -> q.dequeue(10, SECONDS));
+            Thread.sleep(100);
+            q.getShard(2).enqueue(elem(42));
+            assertEquals(42, valueOf(dequeued.get(1, SECONDS)));
+            assertTrue(q.isEmpty());
+
+            q.enqueue(elem(1));
+            assertNull(q.dequeueIf(0, SECONDS, elem -> false));
+            assertEquals(1, valueOf(q.dequeueIf(0, SECONDS, elem -> true)));
+
+            q.enqueueAll(Arrays.asList(elem(1), elem(2), elem(3)));
+            assertEquals(2, q.poll(2, 1, SECONDS).size());
+            assertEquals(3, valueOf(q.peek(1, SECONDS)));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void keyHash() throws Exception {
+        try (ShardedQewQew q = ShardedQewQew.from(randomHeadPaths(4), CHUNK_SIZE)) {
+            final String[] keys = {"a", "b", "c", "d", "e", "f"};
+            for (int i = 0; i < 60; i++) {
+                q.enqueue(keys[i % keys.length], elem(i));
+            }
+            for (String key : keys) {
+                PollableQewQew<byte[]> shard = q.getShard(q.shardOf(key));
+                assertFalse(shard.isEmpty());
+            }
+
+            int[] last = new int[keys.length];
+            Arrays.fill(last, -1);
+            int count = 0;
+            for (byte[] elem = q.peek(); elem != null; elem = q.peek()) {
+                int value = valueOf(elem);
+                int key = value % keys.length;
+                assertTrue(value > last[key], "elements of a key are consumed in order");
+                last[key] = value;
+                assertTrue(q.dequeue());
+                count++;
+            }
+            assertEquals(60, count);
+        }
+    }
+
+    @Test
+    void shardsInDifferentDirectories() throws Exception {
+        List<Path> dirs = Arrays.asList(Files.createTempDirectory("qew-a"), Files.createTempDirectory("qew-b"));
+        List<Path> paths = Arrays.asList(dirs.get(0).resolve("queue.qew"), dirs.get(1).resolve("queue.qew"));
+        try (ShardedQewQew q = ShardedQewQew.from(paths, CHUNK_SIZE)) {
+            q.enqueue(elem(1));
+            q.enqueue(elem(2));
+        }
+        try (ShardedQewQew q = ShardedQewQew.from(paths, CHUNK_SIZE)) {
+            assertEquals(1, valueOf(q.getShard(0).peek()));
+            assertEquals(2, valueOf(q.getShard(1).peek()));
+            assertTrue(q.clear());
+            assertTrue(q.isEmpty());
+        }
+        for (Path dir : dirs) {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void parallelShardConsumers() throws Exception {
+        final int shards = 4;
+        final int producers = 4;
+        final int perProducer = 2000;
+        final AtomicIntegerArray received = new AtomicIntegerArray(producers * perProducer);
+        final QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED);
+        final ExecutorService executor = Executors.newFixedThreadPool(shards + producers);
+        try (ShardedQewQew q = ShardedQewQew.from(randomHeadPaths(shards), CHUNK_SIZE, options)) {
+            List<Future<?>> consumers = new ArrayList<>();
+            for (PollableQewQew<byte[]> shard : q.getShards()) {
+                consumers.add(executor.submit(() -> {
+                    byte[] elem;
+                    while ((elem = shard.dequeue(500, MILLISECONDS)) != null) {
+                        received.incrementAndGet(valueOf(elem));
+                    }
+                    return null;
+                }));
+            }
+            List<Future<?>> results = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final int offset = p * perProducer;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        q.enqueue(elem(offset + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, SECONDS);
+            }
+            for (Future<?> consumer : consumers) {
+                consumer.get(30, SECONDS);
+            }
+            assertTrue(q.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < received.length(); i++) {
+            assertEquals(1, received.get(i), "element " + i);
+        }
+    }
+}
@@ -22,14 +22,27 @@
  */
 package tel.schich.qewqew;
 
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.junit.jupiter.api.Test;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static tel.schich.qewqew.SimpleQewQewTest.CHUNK_SIZE;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
 
 class SimplePollableQewQewTest {
 
@@ -104,6 +117,28 @@ class SimplePollableQewQewTest {
         });
     }
 
+    @Test
+    void pollMany() throws Exception {
+        withQueue("poll-many-test.qew", q -> {
+            long start = System.currentTimeMillis();
+            List<byte[]> emptyResult = q.poll(10, 1, SECONDS);
+            long delta = (System.currentTimeMillis() - start) / 1000;
+            assertEquals(1, delta);
+            assertTrue(emptyResult.isEmpty());
+
+            q.enqueueAll(Arrays.asList(new byte[] {1}, new byte[] {2}, new byte[] {3}));
+            assertTimeout(Duration.ofMillis(100), () -> {
+                List<byte[]> result = q.poll(2, 1, SECONDS);
+                assertEquals(2, result.size());
+                assertArrayEquals(new byte[] {1}, result.get(0));
+                assertArrayEquals(new byte[] {2}, result.get(1));
+            });
+            assertArrayEquals(new byte[] {3}, q.dequeue(1, SECONDS));
+
+            q.clear();
+        });
+    }
+
     @Test
     void dequeueIf() throws Exception {
         withQueue("dequeue-test.qew", q -> {
@@ -119,4 +154,88 @@ class SimplePollableQewQewTest {
             q.clear();
         });
     }
+
+    @Test
+    void peekingWaiterPassesSignalOn() throws Exception {
+        final Path headPath = randomHeadPath();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        final ExecutorService waiters = Executors.newFixedThreadPool(2);
+        try (SimplePollableQewQew<byte[]> q = new SimplePollableQewQew<>(new SimpleQewQew(headPath, CHUNK_SIZE))) {
+            Future<byte[]> peeked = waiters.submit(() -> q.peek(10, SECONDS));
+            awaitBlockedWaiters(server, name, 1);
+            Future<byte[]> dequeued = waiters.submit(() -> q.dequeue(10, SECONDS));
+            awaitBlockedWaiters(server, name, 2);
+
+            byte[] input = {1, 2, 3};
+            q.enqueue(input);
+            assertTimeout(Duration.ofSeconds(5), () -> {
+                assertArrayEquals(input, peeked.get());
+                assertArrayEquals(input, dequeued.get());
+            });
+            assertTrue(q.isEmpty());
+        } finally {
+            waiters.shutdownNow();
+        }
+    }
+
+    private static void awaitBlockedWaiters(MBeanServer server, ObjectName name, int count) throws Exception {
+        while ((int) server.getAttribute(name, "BlockedWaiters") < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void virtualThreadConsumers() throws Exception {
+        final ExecutorService consumers = newVirtualThreadPerTaskExecutor();
+        assumeTrue(consumers != null, "virtual threads require Java 21");
+
+        final int count = 10000;
+        final AtomicIntegerArray received = new AtomicIntegerArray(count);
+        final QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED);
+        try (SimplePollableQewQew<byte[]> q = new SimplePollableQewQew<>(new SimpleQewQew(randomHeadPath(), 64 * 1024, options), false)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                results.add(consumers.submit(() -> {
+                    byte[] elem = q.dequeue(30, SECONDS);
+                    assertNotNull(elem);
+                    received.incrementAndGet(ByteBuffer.wrap(elem).getInt());
+                    return null;
+                }));
+            }
+
+            List<byte[]> batch = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                byte[] elem = ByteBuffer.allocate(Integer.BYTES).putInt(i).array();
+                if (i % 2 == 0) {
+                    q.enqueue(elem);
+                } else {
+                    batch.add(elem);
+                    if (batch.size() == 100) {
+                        q.enqueueAll(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            q.enqueueAll(batch);
+
+            for (Future<?> result : results) {
+                result.get(30, SECONDS);
+            }
+            assertTrue(q.isEmpty());
+        } finally {
+            consumers.shutdownNow();
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, received.get(i), "element " + i);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
 }
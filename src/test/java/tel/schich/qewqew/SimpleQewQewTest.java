@@ -22,16 +22,39 @@
  */
 package tel.schich.qewqew;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import org.junit.jupiter.api.Test;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.*;
 import static tel.schich.qewqew.TestHelper.hashFile;
 
@@ -39,7 +62,7 @@ class SimpleQewQewTest {
 
     public static final int CHUNK_SIZE = 1024;
 
-    Path randomHeadPath() {
+    static Path randomHeadPath() {
         return Paths.get("/tmp/qew-" + (new Random().nextInt()) + ".qew");
     }
 
@@ -70,7 +93,7 @@ class SimpleQewQewTest {
         final Path headPath = randomHeadPath();
         final byte[] payload = {1, 2, 3};
         // chunk fits its header, 1 entry header (length) and 2 same-size payloads
-        final int chunkSize = SimpleQewQew.CHUNK_HEADER_SIZE + SimpleQewQew.ENTRY_HEADER_SIZE + 2 * payload.length;
+        final int chunkSize = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + 2 * payload.length;
 
         try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize)) {
             q.clear();
@@ -152,6 +175,849 @@ class SimpleQewQewTest {
         }
     }
 
+    @Test
+    void testPeekAfterRollover() throws IOException {
+        final Path headPath = randomHeadPath();
+        final byte[] payload = {1, 2, 3};
+        final int chunkSize = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + payload.length;
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize)) {
+            q.enqueue(payload);
+            q.enqueue(buf(4, 5, 6));
+            assertEquals(2, q.countChunks());
+
+            // the head chunk must still be readable after the tail rolled over
+            assertArrayEquals(payload, q.peek());
+            assertTrue(q.dequeue());
+            assertArrayEquals(buf(4, 5, 6), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testDurabilityModes() throws IOException {
+        final DurabilityMode[] modes = {
+            DurabilityMode.SYNC,
+            DurabilityMode.OS_MANAGED,
+            DurabilityMode.groupCommit(16, 0, MILLISECONDS),
+            DurabilityMode.groupCommit(0, 1, MILLISECONDS),
+        };
+        for (DurabilityMode mode : modes) {
+            final Path headPath = randomHeadPath();
+            final Random r = new Random(1);
+            final Queue<byte[]> expectedBuffers = new ArrayDeque<>();
+            try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, mode)) {
+                assertSame(mode, q.getDurability());
+                for (int i = 0; i < 100; ++i) {
+                    byte[] buf = random(r, r.nextInt(100));
+                    expectedBuffers.add(buf);
+                    q.enqueue(buf);
+                }
+                q.sync();
+            }
+
+            try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, mode)) {
+                while (!q.isEmpty()) {
+                    assertArrayEquals(expectedBuffers.remove(), q.peek(), mode.toString());
+                    assertTrue(q.dequeue());
+                }
+                assertTrue(expectedBuffers.isEmpty());
+            }
+        }
+    }
+
+    @Test
+    void testEnqueueAll() throws IOException {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final List<byte[]> batch = new ArrayList<>();
+        final ByteBuffer[] directBatch = new ByteBuffer[100];
+        for (int i = 0; i < 100; ++i) {
+            batch.add(random(r, r.nextInt(100)));
+            directBatch[i] = ByteBuffer.allocateDirect(r.nextInt(100));
+            directBatch[i].put(random(r, directBatch[i].capacity())).flip();
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            q.enqueueAll(batch);
+            q.enqueueAll(directBatch);
+            assertTrue(q.countChunks() > 1);
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            for (byte[] expected : batch) {
+                assertArrayEquals(expected, q.peek());
+                assertTrue(q.dequeue());
+            }
+            for (ByteBuffer expected : directBatch) {
+                assertEquals(expected, ByteBuffer.wrap(q.peek()));
+                assertTrue(q.dequeue());
+            }
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testEnqueueAllTooBig() throws IOException {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            final byte[] tooBig = new byte[(int) q.getMaxElementSize() + 1];
+            assertThrows(BufferOverflowException.class, () -> q.enqueueAll(Arrays.asList(buf(1), tooBig, buf(2))));
+            // elements before the oversized one have been enqueued
+            assertArrayEquals(buf(1), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testEnqueueByteBuffer() throws IOException {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            final ByteBuffer direct = ByteBuffer.allocateDirect(8);
+            direct.put(buf(1, 2, 3, 4, 5)).flip();
+            direct.position(1);
+            q.enqueue(direct);
+            // the position of the input is not modified
+            assertEquals(1, direct.position());
+            assertArrayEquals(buf(2, 3, 4, 5), q.peek());
+            assertTrue(q.dequeue());
+
+            q.enqueue(ByteBuffer.wrap(buf(1, 2)), direct, ByteBuffer.allocate(0), ByteBuffer.wrap(buf(6)));
+            assertArrayEquals(buf(1, 2, 2, 3, 4, 5, 6), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+
+            final ByteBuffer half = ByteBuffer.allocateDirect((int) q.getMaxElementSize() / 2 + 1);
+            assertThrows(BufferOverflowException.class, () -> q.enqueue(half, half));
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testClaimCommit() throws IOException {
+        final Path headPath = randomHeadPath();
+        final byte[] payload = {1, 2, 3};
+        final int chunkSize = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + 2 * payload.length;
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize)) {
+            assertThrows(IllegalStateException.class, () -> q.commit(0));
+
+            ByteBuffer claimed = q.claim(payload.length * 2);
+            assertEquals(payload.length * 2, claimed.remaining());
+            assertThrows(IllegalStateException.class, () -> q.enqueue(payload));
+            claimed.put(payload);
+            assertThrows(IllegalArgumentException.class, () -> q.commit(payload.length * 2 + 1));
+            q.commit(payload.length);
+            assertEquals(1, q.countChunks());
+
+            // does not fit into the first chunk anymore
+            q.claim(payload.length).put(buf(4, 5, 6));
+            q.commit(payload.length);
+            assertEquals(2, q.countChunks());
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize)) {
+            assertArrayEquals(payload, q.peek());
+            assertTrue(q.dequeue());
+            assertArrayEquals(buf(4, 5, 6), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testEnqueueAfterClear() throws IOException {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            q.enqueue(buf(1, 2, 3));
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            assertTrue(q.clear());
+            q.enqueue(buf(4, 5));
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertArrayEquals(buf(4, 5), q.peek());
+            assertTrue(q.clear());
+        }
+    }
+
+    @Test
+    void testSpareChunks() throws IOException {
+        final Path headPath = randomHeadPath();
+        final byte[] payload = {1, 2, 3};
+        final int chunkSize = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + payload.length;
+        final QewOptions options = QewOptions.DEFAULT.withSpareChunks(2);
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize, options)) {
+            for (int i = 0; i < 4; i++) {
+                q.enqueue(buf(i, i, i));
+            }
+            assertEquals(4, q.countChunks());
+
+            // the pool is bounded, the third depleted chunk is deleted
+            for (int i = 0; i < 3; i++) {
+                assertTrue(q.dequeue());
+            }
+            assertEquals(2, q.countSpareChunks());
+
+            // new chunks are taken from the pool
+            q.enqueue(buf(4, 4, 4));
+            assertEquals(1, q.countSpareChunks());
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize, options)) {
+            assertEquals(1, q.countSpareChunks());
+            assertArrayEquals(buf(3, 3, 3), q.peek());
+            assertTrue(q.dequeue());
+            assertArrayEquals(buf(4, 4, 4), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+
+        // closing an empty queue removes all files including the spares
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(headPath.getParent(), headPath.getFileName() + "*")) {
+            assertFalse(files.iterator().hasNext());
+        }
+    }
+
+    @Test
+    void testChunkAllocator() throws IOException {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final Queue<byte[]> expectedBuffers = new ArrayDeque<>();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final QewOptions options = QewOptions.DEFAULT.withChunkAllocator(executor).withSpareChunks(1);
+        try {
+            try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+                for (int i = 0; i < 100; ++i) {
+                    byte[] buf = random(r, r.nextInt(100));
+                    expectedBuffers.add(buf);
+                    q.enqueue(buf);
+                }
+                assertTrue(q.countChunks() > 1);
+            }
+
+            try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+                while (!q.isEmpty()) {
+                    assertArrayEquals(expectedBuffers.remove(), q.peek());
+                    assertTrue(q.dequeue());
+                }
+                assertTrue(expectedBuffers.isEmpty());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the prepared chunk does not outlive the queue
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(headPath.getParent(), headPath.getFileName() + "*")) {
+            assertFalse(files.iterator().hasNext());
+        }
+    }
+
+    @Test
+    void testRejectedChunkAllocatorKeepsSpares() throws IOException {
+        final Path headPath = randomHeadPath();
+        final byte[] payload = {1, 2, 3};
+        final int chunkSize = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + payload.length;
+        final QewOptions options = QewOptions.DEFAULT.withSpareChunks(2);
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize, options)) {
+            for (int i = 0; i < 3; i++) {
+                q.enqueue(buf(i, i, i));
+            }
+            assertTrue(q.dequeue());
+            assertTrue(q.dequeue());
+            assertEquals(2, q.countSpareChunks());
+        }
+
+        final Executor rejecting = task -> {
+            throw new RejectedExecutionException();
+        };
+        try (SimpleQewQew q = new SimpleQewQew(headPath, chunkSize, options.withChunkAllocator(rejecting))) {
+            assertEquals(2, q.countSpareChunks());
+            q.enqueue(buf(3, 3, 3));
+            assertEquals(1, q.countSpareChunks());
+            assertArrayEquals(buf(2, 2, 2), q.peek());
+            assertTrue(q.dequeue());
+            assertArrayEquals(buf(3, 3, 3), q.peek());
+            assertTrue(q.dequeue());
+        }
+    }
+
+    @Test
+    void testFailedOpenReleasesQueue() throws IOException {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            for (int i = 0; i < 3; i++) {
+                q.enqueue(new byte[CHUNK_SIZE / 2]);
+            }
+        }
+
+        final QewOptions failing = QewOptions.DEFAULT.withMetrics(queuePath -> {
+            throw new IllegalStateException("metrics are not available");
+        });
+        assertThrows(IllegalStateException.class, () -> new SimpleQewQew(headPath, CHUNK_SIZE, failing));
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(3, q.countChunks());
+            q.clear();
+        }
+    }
+
+    @Test
+    void testDrainTo() throws IOException {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final List<byte[]> batch = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            batch.add(random(r, r.nextInt(100)));
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            q.enqueueAll(batch);
+            final List<byte[]> drained = new ArrayList<>();
+            assertEquals(0, q.drainTo(drained, 0));
+            assertEquals(30, q.drainTo(drained, 30));
+            assertEquals(30, drained.size());
+        }
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            final List<byte[]> drained = new ArrayList<>();
+            assertEquals(70, q.drainTo(drained, 1000));
+            assertTrue(q.isEmpty());
+            assertEquals(0, q.countChunks());
+            for (int i = 0; i < drained.size(); i++) {
+                assertArrayEquals(batch.get(30 + i), drained.get(i));
+            }
+        }
+    }
+
+    @Test
+    void testConsume() throws Exception {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertFalse(q.consume(view -> fail("queue is empty")));
+
+            q.enqueue(buf(1, 2, 3));
+            q.enqueue(buf(4, 5));
+
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> q.consume(view -> {
+                throw new IllegalStateException("failed");
+            }));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+
+            assertTrue(q.consume(view -> {
+                assertTrue(view.isReadOnly());
+                assertEquals(ByteBuffer.wrap(buf(1, 2, 3)), view);
+            }));
+            assertTrue(q.consume(view -> assertEquals(ByteBuffer.wrap(buf(4, 5)), view)));
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+        final Path headPath = randomHeadPath();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            q.enqueue(buf(1, 2, 3));
+            q.enqueue(buf(4, 5));
+            q.enqueue(buf(6));
+            q.dequeue();
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(2L, server.getAttribute(name, "Depth"));
+            assertEquals(3L, server.getAttribute(name, "DepthBytes"));
+            q.enqueueAll(Arrays.asList(buf(7), buf(8)));
+            assertEquals(4L, server.getAttribute(name, "Depth"));
+            assertEquals(2L, server.getAttribute(name, "EnqueuedElements"));
+            q.drainTo(new ArrayList<>(), 3);
+            assertEquals(1L, server.getAttribute(name, "Depth"));
+            CompositeData latency = (CompositeData) server.getAttribute(name, "DequeueLatency");
+            assertEquals(1L, latency.get("count"));
+            q.clear();
+            assertEquals(0L, server.getAttribute(name, "Depth"));
+        }
+        assertFalse(server.isRegistered(name));
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, QewOptions.DEFAULT.withMetrics(QewMetricsFactory.NONE))) {
+            q.enqueue(buf(1));
+            assertSame(QewMetrics.NONE, q.getMetrics());
+            assertFalse(server.isRegistered(name));
+        }
+    }
+
+    @Test
+    void testLazyChunkLoading() throws Exception {
+        final Path headPath = randomHeadPath();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        final int count = 100;
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            for (int i = 0; i < count; i++) {
+                q.enqueue(filled(i));
+            }
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            final int chunks = q.countChunks();
+            assertTrue(chunks > 3);
+            assertEquals(2, q.countOpenChunks());
+            final long initialDepth = (Long) server.getAttribute(name, "Depth");
+            assertTrue(initialDepth < count);
+
+            int consumed = 0;
+            while (!q.isEmpty()) {
+                assertArrayEquals(filled(consumed), q.peek());
+                assertTrue(q.dequeue());
+                consumed++;
+                assertTrue(q.countOpenChunks() <= 2);
+            }
+            assertEquals(count, consumed);
+            assertEquals(0L, server.getAttribute(name, "Depth"));
+        }
+    }
+
+    @Test
+    void testMaxOpenChunks() throws Exception {
+        final QewOptions options = QewOptions.DEFAULT.withMaxOpenChunks(4).withMetrics(QewMetricsFactory.NONE);
+        final int count = 200;
+        try (SimpleQewQew q = new SimpleQewQew(randomHeadPath(), CHUNK_SIZE, options)) {
+            SpscPollableQewQew pollable = new SpscPollableQewQew(q);
+            for (int i = 0; i < count; i++) {
+                pollable.enqueue(filled(i));
+            }
+            final int chunks = q.countChunks();
+            assertTrue(chunks > 4);
+            // the producer enforces the limit while nothing is consumed
+            assertTrue(q.countOpenChunks() <= 4);
+
+            for (int i = 0; i < count; i++) {
+                assertArrayEquals(filled(i), pollable.peek());
+                assertTrue(pollable.dequeue());
+                if (q.countChunks() < chunks) {
+                    assertTrue(q.countOpenChunks() <= 4);
+                }
+            }
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    private static byte[] filled(int value) {
+        byte[] elem = new byte[64];
+        Arrays.fill(elem, (byte) value);
+        return elem;
+    }
+
+    @Test
+    void testLatencyHistogramBuckets() {
+        for (long value : new long[] {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.upperBound(index) >= value);
+            assertTrue(index == 0 || LatencyHistogram.upperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    void testLargeElements() throws IOException {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final byte[] large = random(r, 3 * 1024 * 1024);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, 4 * 1024 * 1024, DurabilityMode.OS_MANAGED)) {
+            assertEquals(2, q.getFormatVersion());
+            assertTrue(q.getMaxElementSize() > large.length);
+            q.enqueue(large);
+            q.enqueue(buf(1, 2, 3));
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, 4 * 1024 * 1024, DurabilityMode.OS_MANAGED)) {
+            assertArrayEquals(large, q.peek());
+            q.dequeue();
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testElementSpanningManyChunks() throws IOException {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final byte[] large = random(r, 20_000_000);
+        final QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED).withElementSpanning(true).withChecksums(true);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, 4096, options)) {
+            q.enqueue(large);
+            q.enqueue(buf(1, 2, 3));
+            assertTrue(q.countChunks() > 4000);
+            // the fragments are written and read one chunk at a time
+            assertTrue(q.countOpenChunks() <= 2);
+            assertEquals(large.length, q.peekLength());
+            assertArrayEquals(large, q.peek());
+            assertTrue(q.countOpenChunks() <= 2);
+
+            assertTrue(q.dequeue());
+            assertEquals(1, q.countChunks());
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testLegacyFormat() throws IOException {
+        final Path headPath = randomHeadPath();
+        final int entryHeaderSize = QewFormat.V1.entryHeaderSize;
+        final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        chunk.putInt(QewFormat.V1.chunkHeaderSize);
+        chunk.putInt(QewFormat.V1.chunkHeaderSize + entryHeaderSize + 3);
+        chunk.putShort((short) SimpleQewQew.NULL_REF);
+        chunk.putShort((short) 3);
+        chunk.put(buf(1, 2, 3));
+        Files.write(headPath.resolveSibling(headPath.getFileName() + ".1"), chunk.array());
+        Files.write(headPath, buf(0, 1));
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(1, q.getFormatVersion());
+            assertEquals(CHUNK_SIZE - QewFormat.V1.chunkHeaderSize - entryHeaderSize, q.getMaxElementSize());
+            q.enqueue(buf(4, 5));
+        }
+        assertEquals(Short.BYTES, Files.size(headPath));
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertArrayEquals(buf(4, 5), q.peek());
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testEmptyLegacyFormatIsUpgraded() throws IOException {
+        final Path headPath = randomHeadPath();
+        Files.write(headPath, buf(0, 0));
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(2, q.getFormatVersion());
+            q.enqueue(buf(1));
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(2, q.getFormatVersion());
+            assertArrayEquals(buf(1), q.peek());
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testUnknownFormat() throws IOException {
+        final Path headPath = randomHeadPath();
+        Files.write(headPath, buf(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        assertThrows(QewFormatException.class, () -> new SimpleQewQew(headPath, CHUNK_SIZE));
+
+        final ByteBuffer header = ByteBuffer.allocate(QewFormat.V2.headSize);
+        header.putInt(QewFormat.MAGIC);
+        header.putShort((short) 99);
+        Files.write(headPath, header.array());
+        assertThrows(QewFormatException.class, () -> new SimpleQewQew(headPath, CHUNK_SIZE));
+        Files.delete(headPath);
+    }
+
+    @Test
+    void testSpanningElements() throws Exception {
+        final Path headPath = randomHeadPath();
+        final Random r = new Random(1);
+        final byte[] large = random(r, 5 * CHUNK_SIZE);
+        final byte[] larger = random(r, 7 * CHUNK_SIZE);
+        final QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED).withElementSpanning(true);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertTrue(q.getMaxElementSize() > larger.length);
+            q.enqueue(buf(1, 2, 3));
+            q.enqueue(large);
+            q.enqueueAll(Arrays.asList(buf(4), larger, buf(5)));
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertEquals(large.length, q.peekLength());
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertArrayEquals(large, q.peek());
+            final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            try (InputStream in = q.peekStream()) {
+                final byte[] chunk = new byte[100];
+                int n;
+                while ((n = in.read(chunk)) != -1) {
+                    streamed.write(chunk, 0, n);
+                }
+            }
+            assertArrayEquals(large, streamed.toByteArray());
+            assertTrue(q.consume(view -> assertEquals(ByteBuffer.wrap(large), view)));
+
+            final List<byte[]> drained = new ArrayList<>();
+            assertEquals(3, q.drainTo(drained, 10));
+            assertArrayEquals(buf(4), drained.get(0));
+            assertArrayEquals(larger, drained.get(1));
+            assertArrayEquals(buf(5), drained.get(2));
+            assertTrue(q.isEmpty());
+            assertEquals(0, q.countChunks());
+        }
+    }
+
+    @Test
+    void testIncompleteSpanningElement() throws IOException {
+        final Path headPath = randomHeadPath();
+        final QewOptions options = QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED).withElementSpanning(true);
+        final int firstFragment = QewFormat.CURRENT.chunkHeaderSize + QewFormat.CURRENT.entryHeaderSize + 3;
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            q.enqueue(buf(1, 2, 3));
+            q.enqueue(random(new Random(1), 3 * CHUNK_SIZE));
+        }
+        // a crash before the first fragment has been published leaves the continuation fragments behind
+        final Path firstChunk = headPath.resolveSibling(headPath.getFileName() + ".1");
+        final byte[] content = Files.readAllBytes(firstChunk);
+        ByteBuffer.wrap(content).putInt(SimpleQewQew.CHUNK_TAIL_PTR_OFFSET, firstFragment);
+        Files.write(firstChunk, content);
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertTrue(q.isEmpty());
+            q.enqueue(buf(4));
+            assertArrayEquals(buf(4), q.peek());
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testSpanningIsOptIn() throws IOException {
+        final Path headPath = randomHeadPath();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertEquals(CHUNK_SIZE - QewFormat.CURRENT.chunkHeaderSize - QewFormat.CURRENT.entryHeaderSize, q.getMaxElementSize());
+            assertThrows(BufferOverflowException.class, () -> q.enqueue(new byte[2 * CHUNK_SIZE]));
+        }
+    }
+
+    @Test
+    void testChecksums() throws Exception {
+        final Path headPath = randomHeadPath();
+        final byte[] large = random(new Random(1), 3 * CHUNK_SIZE);
+        final QewOptions options = QewOptions.DEFAULT.withChecksums(true).withElementSpanning(true);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            q.enqueue(buf(1, 2, 3));
+            q.enqueueAll(Arrays.asList(buf(4), buf(5, 6)));
+            ByteBuffer claimed = q.claim(8);
+            claimed.put((byte) 7);
+            q.commit(1);
+            q.enqueue(large);
+        }
+        // existing queues keep their format
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, QewOptions.DEFAULT.withElementSpanning(true))) {
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertEquals(2, q.drainTo(new ArrayList<>(), 2));
+            assertArrayEquals(buf(7), q.peek());
+            q.dequeue();
+            assertArrayEquals(large, q.peek());
+            q.dequeue();
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testCorruptedEntriesAreSkipped() throws Exception {
+        final Path headPath = randomHeadPath();
+        final Path chunkPath = headPath.resolveSibling(headPath.getFileName() + ".1");
+        final QewOptions options = QewOptions.DEFAULT.withChecksums(true);
+        final int entrySize = QewFormat.V2_CHECKSUMS.entryHeaderSize + 3;
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            for (int i = 0; i < 5; i++) {
+                q.enqueue(buf(i, i, i));
+            }
+        }
+        final byte[] chunk = Files.readAllBytes(chunkPath);
+        // a flipped data bit of the second and a broken length of the fourth element
+        chunk[QewFormat.V2_CHECKSUMS.chunkHeaderSize + entrySize + QewFormat.V2_CHECKSUMS.entryHeaderSize] ^= 1;
+        chunk[QewFormat.V2_CHECKSUMS.chunkHeaderSize + 3 * entrySize + QewFormat.V2_CHECKSUMS.lengthOffset] = 0x7F;
+        Files.write(chunkPath, chunk);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertArrayEquals(buf(0, 0, 0), q.peek());
+            q.dequeue();
+            assertArrayEquals(buf(2, 2, 2), q.peek());
+            q.dequeue();
+            assertEquals(1L, server.getAttribute(name, "CorruptedEntries"));
+            // the length of the fourth element is not trusted, so the rest of the chunk is lost
+            assertTrue(q.isEmpty());
+            assertEquals(2L, server.getAttribute(name, "CorruptedEntries"));
+            q.enqueue(buf(5));
+            assertArrayEquals(buf(5), q.peek());
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testCorruptedBatchSizeIsRejected() throws Exception {
+        final Path headPath = randomHeadPath();
+        final Path chunkPath = headPath.resolveSibling(headPath.getFileName() + ".1");
+        final QewOptions options = QewOptions.DEFAULT.withCompression(QewCompression.DEFLATE);
+        final QewFormat format = QewFormat.current(QewFormat.HEAD_FLAG_COMPRESSION);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            q.enqueueAll(Collections.nCopies(10, new byte[32]));
+            q.enqueue(buf(9));
+        }
+        // an uncompressed size far beyond the batch limit
+        final byte[] chunk = Files.readAllBytes(chunkPath);
+        ByteBuffer.wrap(chunk).putInt(format.chunkHeaderSize + format.entryHeaderSize + 5, Integer.MAX_VALUE);
+        Files.write(chunkPath, chunk);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = JmxQewMetrics.objectName(headPath.toAbsolutePath());
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertArrayEquals(buf(9), q.peek());
+            assertEquals(1L, server.getAttribute(name, "CorruptedEntries"));
+            assertTrue(q.dequeue());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testCrc32c() {
+        final ByteBuffer check = ByteBuffer.wrap("__123456789__".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(0xE3069283, Crc32c.compute(check, 2, 9));
+        assertEquals(0xE3069283, Crc32c.computeTable(check, 2, 9));
+
+        final Random r = new Random(1);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(4096);
+        direct.put(random(r, 4096));
+        for (int length = 0; length < 300; length += 7) {
+            assertEquals(Crc32c.computeTable(direct, 5, length), Crc32c.compute(direct, 5, length));
+        }
+    }
+
+    @Test
+    void testCompression() throws Exception {
+        final Path headPath = randomHeadPath();
+        final List<byte[]> elems = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            elems.add(("{\"id\":" + i + ",\"name\":\"element\",\"tags\":[\"a\",\"b\"]}").getBytes(StandardCharsets.UTF_8));
+        }
+        final byte[] incompressible = random(new Random(1), 100);
+        final QewOptions options = QewOptions.DEFAULT.withCompression(QewCompression.DEFLATE).withMetrics(QewMetricsFactory.NONE).withChecksums(true);
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            q.enqueueAll(elems);
+            assertEquals(1, q.countChunks());
+            q.enqueue(buf(1, 2, 3));
+            q.enqueueAll(Arrays.asList(incompressible, buf(4)));
+            assertArrayEquals(elems.get(0), q.peek());
+            assertEquals(elems.get(0).length, q.peekLength());
+            q.dequeue();
+            assertTrue(q.consume(view -> assertEquals(ByteBuffer.wrap(elems.get(1)), view)));
+        }
+        // the position within the batch is persisted
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, options)) {
+            assertArrayEquals(elems.get(2), q.peek());
+            List<byte[]> drained = new ArrayList<>();
+            assertEquals(98, q.drainTo(drained, 98));
+            assertArrayEquals(elems.get(99), drained.get(97));
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertArrayEquals(incompressible, q.peek());
+            q.dequeue();
+            assertArrayEquals(buf(4), q.peek());
+            q.dequeue();
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void testCustomCompression() throws IOException {
+        final Path headPath = randomHeadPath();
+        final QewCompression custom = new QewCompression() {
+            @Override
+            public int getId() {
+                return 42;
+            }
+
+            @Override
+            public byte[] compress(byte[] input, int offset, int length) {
+                return DEFLATE.compress(input, offset, length);
+            }
+
+            @Override
+            public void decompress(ByteBuffer input, byte[] output) throws IOException {
+                DEFLATE.decompress(input, output);
+            }
+        };
+        final byte[] elem = new byte[100];
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, QewOptions.DEFAULT.withCompression(custom))) {
+            q.enqueueAll(Arrays.asList(elem, elem));
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, QewOptions.DEFAULT.withCompression(QewCompression.DEFLATE))) {
+            assertThrows(UncheckedIOException.class, q::peek);
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE, QewOptions.DEFAULT.withCompression(custom))) {
+            assertArrayEquals(elem, q.peek());
+            assertEquals(2, q.drainTo(new ArrayList<>(), 2));
+        }
+    }
+
+    @Test
+    void testEnqueueAsync() throws Exception {
+        final Path headPath = randomHeadPath();
+        final List<CompletableFuture<Long>> futures = new ArrayList<>();
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            for (int i = 0; i < 1000; i++) {
+                futures.add(q.enqueueAsync(buf(i, i)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, SECONDS);
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(i + 1, futures.get(i).get().longValue());
+            }
+            // the last futures are completed by closing the queue
+            futures.add(q.enqueueAsync(buf(1)));
+            futures.add(q.enqueueAsync(buf(2)));
+        }
+        assertEquals(1002L, futures.get(1001).get(0, SECONDS).longValue());
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            List<byte[]> elems = new ArrayList<>();
+            assertEquals(1002, q.drainTo(elems, Integer.MAX_VALUE));
+            assertArrayEquals(buf(999, 999), elems.get(999));
+        }
+    }
+
+    @Test
+    void testChunkIdsDoNotWrap() throws IOException {
+        assertEquals(1, QewFormat.V1.nextId(0xFFFE));
+        assertEquals(0x10000L, QewFormat.V2.nextId(0xFFFF));
+
+        final Path headPath = randomHeadPath();
+        final long id = 0xFFFFL;
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            q.enqueue(buf(1, 2, 3));
+        }
+        // pretend the queue went through a lot of chunks already
+        Files.move(headPath.resolveSibling(headPath.getFileName() + ".1"), headPath.resolveSibling(headPath.getFileName() + "." + id));
+        final byte[] header = Files.readAllBytes(headPath);
+        ByteBuffer.wrap(header).putLong(QewFormat.V2.firstRefOffset, id);
+        Files.write(headPath, header);
+
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            final byte[] elem = new byte[(int) q.getMaxElementSize()];
+            q.enqueue(elem);
+            assertEquals(2, q.countChunks());
+            assertTrue(Files.exists(headPath.resolveSibling(headPath.getFileName() + "." + (id + 1))));
+        }
+        try (SimpleQewQew q = new SimpleQewQew(headPath, CHUNK_SIZE)) {
+            assertArrayEquals(buf(1, 2, 3), q.peek());
+            q.dequeue();
+            assertEquals((int) q.getMaxElementSize(), q.peek().length);
+            q.dequeue();
+        }
+    }
+
+    @Test
+    void testInvalidGroupCommit() {
+        assertThrows(IllegalArgumentException.class, () -> DurabilityMode.groupCommit(0, 0, MILLISECONDS));
+        assertThrows(IllegalArgumentException.class, () -> DurabilityMode.groupCommit(-1, 1, MILLISECONDS));
+    }
+
     @Test
     void testQueueIsTooBig() {
         assertThrows(BufferOverflowException.class, () -> {
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ * Copyright © 2018 Phillip Schichtel
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tel.schich.qewqew;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.*;
+import static tel.schich.qewqew.SimpleQewQewTest.random;
+import static tel.schich.qewqew.SimpleQewQewTest.randomHeadPath;
+
+class SpscPollableQewQewTest {
+
+    private static final int CHUNK_SIZE = 256;
+
+    @Test
+    void poll() throws Exception {
+        try (PollableQewQew<byte[]> q = SpscPollableQewQew.from(randomHeadPath(), CHUNK_SIZE)) {
+            long start = System.currentTimeMillis();
+            assertFalse(q.poll(100, MILLISECONDS));
+            assertTrue(System.currentTimeMillis() - start >= 100);
+
+            q.enqueue(new byte[] {1, 2, 3});
+            assertTrue(q.poll(0, MILLISECONDS));
+            assertArrayEquals(new byte[] {1, 2, 3}, q.dequeue(0, MILLISECONDS));
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void clear() throws Exception {
+        try (PollableQewQew<byte[]> q = SpscPollableQewQew.from(randomHeadPath(), CHUNK_SIZE)) {
+            assertFalse(q.clear());
+            for (int i = 0; i < 100; i++) {
+                q.enqueue(new byte[] {(byte) i});
+            }
+            assertTrue(q.clear());
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void concurrentProducerAndConsumer() throws Exception {
+        concurrentProducerAndConsumer(QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED), WaitStrategy.PARK);
+        concurrentProducerAndConsumer(QewOptions.DEFAULT.withSpareChunks(2), WaitStrategy.backoff(100, 10));
+        concurrentProducerAndConsumer(QewOptions.DEFAULT.withDurability(DurabilityMode.OS_MANAGED).withMaxOpenChunks(3), WaitStrategy.PARK);
+    }
+
+    private void concurrentProducerAndConsumer(QewOptions options, WaitStrategy waitStrategy) throws Exception {
+        final int count = 10000;
+        final List<byte[]> expected = new ArrayList<>();
+        final Random r = new Random(1);
+        for (int i = 0; i < count; i++) {
+            expected.add(random(r, r.nextInt(64)));
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (PollableQewQew<byte[]> q = SpscPollableQewQew.from(randomHeadPath(), CHUNK_SIZE, options, waitStrategy)) {
+            Future<?> producer = executor.submit(() -> {
+                for (byte[] elem : expected) {
+                    q.enqueue(elem);
+                }
+                return null;
+            });
+
+            for (int i = 0; i < count; i++) {
+                byte[] actual = q.dequeue(10, SECONDS);
+                assertNotNull(actual, "element " + i + " is missing");
+                assertArrayEquals(expected.get(i), actual, "element " + i + " differs");
+            }
+            producer.get();
+            assertTrue(q.isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}